@@ -0,0 +1,61 @@
+package cz.ok1xoe.cqww;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Feeds prepared chunks into a {@link HttpResponse.BodySubscriber} on the calling thread, honouring its demand
+ * like the HTTP client does (one list per chunk). Requests made while a chunk is delivered are trampolined, so
+ * a subscriber that asks for more from {@code onNext} does not recurse.
+ */
+final class BodyFeed implements Flow.Subscription {
+
+    private final HttpResponse.BodySubscriber<?> subscriber;
+    private final List<ByteBuffer> chunks;
+    private int next;
+    private long demand;
+    private boolean delivering;
+    private boolean done;
+
+    private BodyFeed(HttpResponse.BodySubscriber<?> subscriber, List<ByteBuffer> chunks) {
+        this.subscriber = subscriber;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Subscribes and delivers what the subscriber asks for synchronously; the chunks are read through duplicates.
+     * A subscriber that consumes from another call (e.g. the stream of {@code ofInputStream}) pulls the rest
+     * by its later requests.
+     */
+    static <T> HttpResponse.BodySubscriber<T> feed(HttpResponse.BodySubscriber<T> subscriber, List<ByteBuffer> chunks) {
+        subscriber.onSubscribe(new BodyFeed(subscriber, chunks));
+        return subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+        demand += n;
+        if (delivering) return;
+        delivering = true;
+        try {
+            while (demand > 0 && !done) {
+                if (next == chunks.size()) {
+                    done = true;
+                    subscriber.onComplete();
+                    break;
+                }
+                demand--;
+                subscriber.onNext(List.of(chunks.get(next++).duplicate()));
+            }
+        } finally {
+            delivering = false;
+        }
+    }
+
+    @Override
+    public void cancel() {
+        done = true;
+    }
+}
@@ -0,0 +1,109 @@
+package cz.ok1xoe.cqww;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response body -> .part file with SHA-256, one operation = 1 MB of log (decoded): the former
+ * {@code BodyHandlers.ofInputStream()} + stream copy against {@link FileBodySubscriber}. The body arrives as
+ * 16 KB heap buffers like from the HTTP client's socket reads, identity or gzip.
+ * <p>
+ * With {@code -prof gc}, {@code gc.alloc.rate.norm} is directly the bytes allocated per MB downloaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BodyWriteBenchmark {
+
+    private static final int SIZE = 1 << 20;
+    private static final int CHUNK = 16 * 1024;
+    private static final URI LOG_URI = URI.create("http://cqww.com/publiclogs/2024ph/ok1k.log");
+
+    @Param({"identity", "gzip"})
+    public String encoding;
+
+    private List<ByteBuffer> chunks;
+    private String contentEncoding;
+    private Path dir;
+    private Path part;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] body = FileWriteBenchmark.cabrillo(SIZE);
+        contentEncoding = encoding.equals("identity") ? null : encoding;
+        if (contentEncoding != null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (OutputStream gz = new GZIPOutputStream(bos)) {
+                gz.write(body);
+            }
+            body = bos.toByteArray();
+        }
+        chunks = chunks(body, CHUNK);
+        dir = Files.createTempDirectory("cqww-bench");
+        part = dir.resolve("OK1K.log" + HttpDownloadUtils.PART_SUFFIX);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long inputStream() throws IOException {
+        HttpResponse.BodySubscriber<InputStream> body =
+                BodyFeed.feed(HttpResponse.BodySubscribers.ofInputStream(), chunks);
+        try (InputStream in = ContentEncoding.decode(body.getBody().toCompletableFuture().join(), contentEncoding, LOG_URI);
+             OutputStream os = new DigestOutputStream(Files.newOutputStream(part, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), HttpDownloadUtils.sha256())) {
+            return in.transferTo(os);
+        }
+    }
+
+    @Benchmark
+    public long fileChannel() throws IOException {
+        FileBodySubscriber body = new FileBodySubscriber(part, 0L, HttpDownloadUtils.sha256(),
+                ContentEncoding.decoder(contentEncoding, LOG_URI), LOG_URI, RateLimiter.unlimited());
+        return BodyFeed.feed(body, chunks).getBody().toCompletableFuture().join();
+    }
+
+    static List<ByteBuffer> chunks(byte[] body, int chunk) {
+        List<ByteBuffer> list = new ArrayList<>();
+        for (int off = 0; off < body.length; off += chunk) {
+            list.add(ByteBuffer.wrap(body, off, Math.min(chunk, body.length - off)).slice());
+        }
+        return list;
+    }
+}
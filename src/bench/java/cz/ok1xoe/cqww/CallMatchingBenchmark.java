@@ -0,0 +1,97 @@
+package cz.ok1xoe.cqww;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Callsign lookup on one year page: regex scan over all links per call (original findLogUriForCall)
+ * vs. building the {@link CallIndex} once and looking all calls up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallMatchingBenchmark {
+
+    @Param({"1", "100"})
+    public int calls;
+
+    private Set<URI> links;
+    private List<String> callList;
+
+    @Setup
+    public void setup() throws IOException {
+        links = new LinkedHashSet<>();
+        StreamingLinkExtractor.extractLogLinks(new ByteArrayInputStream(Fixtures.load("year-page.html")), null,
+                LinkExtractionBenchmark.YEAR_URL, abs -> links.add(URI.create(abs)));
+
+        // každá desátá značka chybí -> i neúspěšná hledání
+        List<URI> all = new ArrayList<>(links);
+        callList = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            if (i % 10 == 9) {
+                callList.add("ZZ" + i + "ZZ");
+            } else {
+                String name = Path.of(all.get((i * 61) % all.size()).getPath()).getFileName().toString();
+                callList.add(name.substring(0, name.length() - 4).split("[._-]")[0].toUpperCase(Locale.ROOT));
+            }
+        }
+
+        if (!regexScan().equals(callIndex())) {
+            throw new IllegalStateException("Regex scan and CallIndex disagree");
+        }
+    }
+
+    @Benchmark
+    public List<URI> regexScan() {
+        List<URI> found = new ArrayList<>(callList.size());
+        for (String call : callList) {
+            Pattern p = Pattern.compile("(?i)^" + Pattern.quote(call) + "([._-].*)?\\.log$");
+            URI best = null;
+            int bestLen = Integer.MAX_VALUE;
+            for (URI uri : links) {
+                String fileName = Path.of(uri.getPath()).getFileName().toString();
+                if (!p.matcher(fileName).matches()) continue;
+                if (fileName.length() < bestLen) {
+                    best = uri;
+                    bestLen = fileName.length();
+                }
+            }
+            found.add(best);
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<URI> callIndex() {
+        CallIndex index = CallIndex.build(links);
+        List<URI> found = new ArrayList<>(callList.size());
+        for (String call : callList) {
+            found.add(index.lookup(call));
+        }
+        return found;
+    }
+}
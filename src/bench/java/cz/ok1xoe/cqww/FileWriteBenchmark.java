@@ -0,0 +1,92 @@
+package cz.ok1xoe.cqww;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * File write path of DownloadTask: body -> .part (with SHA-256, {@link FileBodySubscriber}) -> atomic rename,
+ * compared with a plain copy of the same bytes. Bodies are synthetic Cabrillo logs in 16 KB buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileWriteBenchmark {
+
+    @Param({"16384", "262144"})
+    public int size;
+
+    private byte[] body;
+    private List<ByteBuffer> chunks;
+    private Path dir;
+    private Path part;
+    private Path out;
+
+    @Setup
+    public void setup() throws IOException {
+        body = cabrillo(size);
+        chunks = BodyWriteBenchmark.chunks(body, 16 * 1024);
+        dir = Files.createTempDirectory("cqww-bench");
+        out = dir.resolve("OK1K.log");
+        part = dir.resolve("OK1K.log" + HttpDownloadUtils.PART_SUFFIX);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long partWithDigest() throws IOException {
+        FileBodySubscriber writer = new FileBodySubscriber(part, 0L, HttpDownloadUtils.sha256(), null,
+                URI.create("http://cqww.com/publiclogs/2024ph/ok1k.log"), RateLimiter.unlimited());
+        long n = BodyFeed.feed(writer, chunks).getBody().toCompletableFuture().join();
+        HttpDownloadUtils.commitPart(part, out);
+        return n;
+    }
+
+    @Benchmark
+    public long plainCopy() throws IOException {
+        return Files.copy(new ByteArrayInputStream(body), out, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static byte[] cabrillo(int size) {
+        StringBuilder sb = new StringBuilder(size + 128);
+        sb.append("START-OF-LOG: 3.0\nCALLSIGN: OK1K\nCONTEST: CQ-WW-SSB\nCATEGORY-OPERATOR: MULTI-OP\n");
+        int i = 0;
+        while (sb.length() < size) {
+            sb.append(String.format("QSO: %5d PH 2024-10-26 %02d%02d OK1K          59  15     DL%dABC        59  14%n",
+                    14000 + (i % 350), (i / 60) % 24, i % 60, i % 10));
+            i++;
+        }
+        sb.setLength(size);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
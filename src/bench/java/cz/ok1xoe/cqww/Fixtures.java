@@ -0,0 +1,19 @@
+package cz.ok1xoe.cqww;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Saved HTML pages used by the benchmarks (src/bench/resources/fixtures).
+ */
+final class Fixtures {
+
+    private Fixtures() {}
+
+    static byte[] load(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) throw new IOException("Missing fixture: " + name);
+            return in.readAllBytes();
+        }
+    }
+}
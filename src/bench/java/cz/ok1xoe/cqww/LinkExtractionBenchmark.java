@@ -0,0 +1,81 @@
+package cz.ok1xoe.cqww;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Year-page link extraction: full Jsoup DOM (original processSingleYearPage code) vs. streaming extractor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkExtractionBenchmark {
+
+    static final String YEAR_URL = "https://cqww.com/publiclogs/2024ph/";
+
+    private byte[] page;
+
+    @Setup
+    public void setup() throws IOException {
+        page = Fixtures.load("year-page.html");
+        List<URI> dom = new ArrayList<>(jsoupDom());
+        List<URI> streaming = new ArrayList<>(streaming());
+        if (!dom.equals(streaming)) {
+            throw new IllegalStateException("Extractors differ: " + dom.size() + " vs " + streaming.size());
+        }
+    }
+
+    @Benchmark
+    public Set<URI> jsoupDom() throws IOException {
+        Document doc = Jsoup.parse(new ByteArrayInputStream(page), null, YEAR_URL);
+        Set<URI> uris = new LinkedHashSet<>();
+        Elements links = doc.select("a[href]");
+        for (Element a : links) {
+            String abs = a.attr("abs:href");
+            if (abs == null || abs.isBlank()) continue;
+            if (!abs.toLowerCase(Locale.ROOT).endsWith(".log")) continue;
+            try {
+                uris.add(new URI(abs));
+            } catch (URISyntaxException ex) {
+                // přeskočit
+            }
+        }
+        return uris;
+    }
+
+    @Benchmark
+    public Set<URI> streaming() throws IOException {
+        Set<URI> uris = new LinkedHashSet<>();
+        try (InputStream in = new ByteArrayInputStream(page)) {
+            StreamingLinkExtractor.extractLogLinks(in, null, YEAR_URL, abs -> uris.add(URI.create(abs)));
+        }
+        return uris;
+    }
+}
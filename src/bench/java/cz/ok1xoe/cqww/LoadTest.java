@@ -0,0 +1,150 @@
+package cz.ok1xoe.cqww;
+
+import org.springframework.boot.DefaultApplicationArguments;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test: runs the downloader in-process against {@link MockCqwwServer} and reports
+ * files/s and MB/s per server profile and download mode.
+ * <p>
+ * {@code mvn -Pbench test-compile exec:exec -Dbench.main=cz.ok1xoe.cqww.LoadTest
+ * -Dbench.args="--logs=2000 --profiles=clean,slow --scenarios=index,year,calls"}
+ * <p>
+ * Other arguments are passed to the downloader (e.g. {@code --maxConcurrent=50 --adaptive=false --store=zip}).
+ */
+public final class LoadTest {
+
+    private record Profile(String name, MockCqwwServer.Config config) {
+    }
+
+    private record Row(String profile, String scenario, long files, long bytes, long wireBytes, double seconds,
+                       long retries, long errors, long replaced, long served, long injected) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int logs = 1000;
+        int logSize = 40_000;
+        List<String> profiles = List.of("clean", "slow", "flaky", "goaway");
+        List<String> scenarios = List.of("index", "year", "calls");
+        List<String> extra = new ArrayList<>();
+        for (String a : args) {
+            String[] kv = a.replaceFirst("^--", "").split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "logs" -> logs = Integer.parseInt(v);
+                case "logSize" -> logSize = Integer.parseInt(v);
+                case "profiles" -> profiles = List.of(v.split(","));
+                case "scenarios" -> scenarios = List.of(v.split(","));
+                default -> extra.add(a);
+            }
+        }
+
+        MockCqwwServer.Config base = MockCqwwServer.Config.defaults().withLogs(logs, logSize);
+        List<Row> rows = new ArrayList<>();
+        for (String p : profiles) {
+            Profile profile = profile(p, base);
+            for (String scenario : scenarios) {
+                rows.add(run(profile, scenario, extra));
+            }
+        }
+        print(rows);
+    }
+
+    private static Profile profile(String name, MockCqwwServer.Config base) {
+        return switch (name) {
+            case "clean" -> new Profile(name, base);
+            case "http1" -> new Profile(name, base.withHttp2(false));
+            case "slow" -> new Profile(name, base.withLatency(50).withBandwidth(512 * 1024));
+            case "flaky" -> new Profile(name, base.withLatency(10).withErrors(0.05, 0.02));
+            case "goaway" -> new Profile(name, base.withGoAwayEvery(200));
+            case "gzip" -> new Profile(name, base.withEncoding("gzip"));
+            case "deflate" -> new Profile(name, base.withEncoding("deflate"));
+            case "slowgzip" -> new Profile(name, base.withLatency(50).withBandwidth(512 * 1024).withEncoding("gzip"));
+            default -> throw new IllegalArgumentException("Unknown profile: " + name
+                    + " (clean, http1, slow, flaky, goaway, gzip, deflate, slowgzip)");
+        };
+    }
+
+    private static Row run(Profile profile, String scenario, List<String> extra) throws Exception {
+        Path out = Files.createTempDirectory("cqww-load");
+        DownloadMetrics m = DownloadMetrics.get();
+        try (MockCqwwServer server = new MockCqwwServer(profile.config())) {
+            String index = server.indexUrl();
+            String year = profile.config().years().getFirst();
+
+            List<String> args = new ArrayList<>(List.of("--out=" + out, "--cache=false", "--retries=5"));
+            switch (scenario) {
+                case "index" -> args.add("--url=" + index);
+                case "year" -> args.add("--url=" + index + year + "/");
+                case "calls" -> {
+                    // každá pátá značka na serveru neexistuje
+                    Path calls = out.resolve("calls.txt");
+                    List<String> lines = new ArrayList<>();
+                    for (int i = 0; i < 200; i++) {
+                        lines.add(i % 5 == 4 ? "ZZ" + i + "ZZ" : MockCqwwServer.call(i * 3 % profile.config().logsPerYear()));
+                    }
+                    Files.write(calls, lines);
+                    args.addAll(List.of("--url=" + index, "--calls=" + calls));
+                }
+                default -> throw new IllegalArgumentException("Unknown scenario: " + scenario + " (index, year, calls)");
+            }
+            args.addAll(extra);
+
+            long files0 = m.filesOk.sum();
+            long bytes0 = m.bytes.sum();
+            long wire0 = m.wireBytes.sum();
+            long retries0 = m.retries.sum();
+            long errors0 = m.errors().values().stream().mapToLong(Long::longValue).sum();
+            long replaced0 = m.connectionsReplaced.sum();
+
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long start = System.nanoTime();
+            try {
+                new CqwwLogDownloaderApplication().run(new DefaultApplicationArguments(args.toArray(String[]::new)));
+            } finally {
+                System.setOut(console);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Row row = new Row(profile.name(), scenario, m.filesOk.sum() - files0, m.bytes.sum() - bytes0,
+                    m.wireBytes.sum() - wire0, seconds,
+                    m.retries.sum() - retries0,
+                    m.errors().values().stream().mapToLong(Long::longValue).sum() - errors0,
+                    m.connectionsReplaced.sum() - replaced0,
+                    server.requests.get(), server.errors.get() + server.resets.get() + server.goAways.get());
+            System.out.printf(Locale.ROOT, "%-8s %-7s done in %.1f s%n", row.profile(), row.scenario(), seconds);
+            return row;
+        } finally {
+            delete(out);
+        }
+    }
+
+    private static void print(List<Row> rows) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-8s %-8s %8s %9s %9s %8s %9s %8s %8s %7s %9s %9s %9s%n",
+                "profile", "scenario", "files", "MB", "wire MB", "seconds", "files/s", "MB/s", "retries", "errors", "replaced", "requests", "injected");
+        for (Row r : rows) {
+            double mb = r.bytes() / 1_048_576.0;
+            System.out.printf(Locale.ROOT, "%-8s %-8s %8d %9.1f %9.1f %8.2f %9.1f %8.2f %8d %7d %9d %9d %9d%n",
+                    r.profile(), r.scenario(), r.files(), mb, r.wireBytes() / 1_048_576.0, r.seconds(), r.files() / r.seconds(), mb / r.seconds(),
+                    r.retries(), r.errors(), r.replaced(), r.served(), r.injected());
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package cz.ok1xoe.cqww;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.HTTP2Connection;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for cqww.com/publiclogs: index page, year pages and synthetic Cabrillo logs.
+ * <p>
+ * Serves HTTP/1.1 and (optionally) h2c on one port. Latency, per-response bandwidth, 503 errors,
+ * connection resets in the middle of a body and HTTP/2 GOAWAY can be injected; log bodies can be served gzip or
+ * deflate encoded. Logs are generated
+ * deterministically from their name, so ETag / If-None-Match and Range requests behave like on the real server.
+ * <p>
+ * Standalone: {@code mvn -Pbench test-compile exec:exec -Dbench.main=cz.ok1xoe.cqww.MockCqwwServer
+ * -Dbench.args="--port=8080 --logs=5000 --latencyMs=50"}
+ */
+public final class MockCqwwServer implements AutoCloseable {
+
+    private static final Pattern YEAR_PAGE = Pattern.compile("^/publiclogs/(\\d{4}(?:ph|cw|rtty))/$");
+    private static final Pattern LOG_FILE = Pattern.compile("^/publiclogs/(\\d{4}(?:ph|cw|rtty))/([a-z0-9]+)\\.log$");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+    private static final String[] PREFIXES = {"OK", "OL", "DL", "DK", "K", "W", "N", "JA", "VK", "G", "F", "I", "EA", "SP", "UA", "LZ"};
+    private static final String LAST_MODIFIED = "Mon, 02 Dec 2024 10:00:00 GMT";
+
+    /**
+     * Server behaviour; rates are probabilities per log request (0..1).
+     */
+    public record Config(int port, boolean http2, List<String> years, int logsPerYear, int logSize,
+                         long latencyMs, long bytesPerSecond, double errorRate, double resetRate, int goAwayEvery,
+                         String encoding) {
+
+        public static Config defaults() {
+            return new Config(0, true, List.of("2024ph", "2024cw", "2023ph", "2023cw"), 1000, 40_000,
+                    0, 0, 0.0, 0.0, 0, null);
+        }
+
+        public Config withLatency(long ms) {
+            return new Config(port, http2, years, logsPerYear, logSize, ms, bytesPerSecond, errorRate, resetRate, goAwayEvery, encoding);
+        }
+
+        public Config withBandwidth(long bps) {
+            return new Config(port, http2, years, logsPerYear, logSize, latencyMs, bps, errorRate, resetRate, goAwayEvery, encoding);
+        }
+
+        public Config withErrors(double errors, double resets) {
+            return new Config(port, http2, years, logsPerYear, logSize, latencyMs, bytesPerSecond, errors, resets, goAwayEvery, encoding);
+        }
+
+        public Config withGoAwayEvery(int n) {
+            return new Config(port, http2, years, logsPerYear, logSize, latencyMs, bytesPerSecond, errorRate, resetRate, n, encoding);
+        }
+
+        public Config withLogs(int perYear, int size) {
+            return new Config(port, http2, years, perYear, size, latencyMs, bytesPerSecond, errorRate, resetRate, goAwayEvery, encoding);
+        }
+
+        public Config withHttp2(boolean h2) {
+            return new Config(port, h2, years, logsPerYear, logSize, latencyMs, bytesPerSecond, errorRate, resetRate, goAwayEvery, encoding);
+        }
+
+        /**
+         * Content-Encoding (gzip or deflate) for log bodies when the client accepts it, null = identity only.
+         */
+        public Config withEncoding(String e) {
+            return new Config(port, http2, years, logsPerYear, logSize, latencyMs, bytesPerSecond, errorRate, resetRate, goAwayEvery, e);
+        }
+
+        public Config withPort(int p) {
+            return new Config(p, http2, years, logsPerYear, logSize, latencyMs, bytesPerSecond, errorRate, resetRate, goAwayEvery, encoding);
+        }
+    }
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong resets = new AtomicLong();
+    final AtomicLong goAways = new AtomicLong();
+    final AtomicLong heads = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+    // System.nanoTime() prvního požadavku (0 = zatím žádný), pro měření startu klienta
+    final AtomicLong firstRequestNanos = new AtomicLong();
+
+    private final Config config;
+    private final Map<String, byte[]> encoded = new ConcurrentHashMap<>();
+    private final Server server;
+    private final ServerConnector connector;
+
+    public MockCqwwServer(Config config) throws Exception {
+        this.config = config;
+        QueuedThreadPool pool = new QueuedThreadPool(1024, 16);
+        pool.setName("mock-cqww");
+        pool.setDaemon(true);
+        this.server = new Server(pool);
+
+        HttpConfiguration http = new HttpConfiguration();
+        http.setSendServerVersion(false);
+        this.connector = config.http2()
+                ? new ServerConnector(server, new HttpConnectionFactory(http), new HTTP2CServerConnectionFactory(http))
+                : new ServerConnector(server, new HttpConnectionFactory(http));
+        connector.setPort(config.port());
+        server.addConnector(connector);
+        server.setStopTimeout(1000);
+        server.setHandler(new Handler.Abstract() {
+            @Override
+            public boolean handle(Request request, Response response, Callback callback) throws Exception {
+                return serve(request, response, callback);
+            }
+        });
+        server.start();
+    }
+
+    public int port() {
+        return connector.getLocalPort();
+    }
+
+    public String indexUrl() {
+        return "http://localhost:" + port() + "/publiclogs/";
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    /**
+     * Callsign of log number {@code i} (unique within a year page).
+     */
+    static String call(int i) {
+        int p = i % PREFIXES.length;
+        int digit = (i / PREFIXES.length) % 10;
+        int rest = i / (PREFIXES.length * 10);
+        StringBuilder suffix = new StringBuilder();
+        do {
+            suffix.append((char) ('A' + rest % 26));
+            rest /= 26;
+        } while (rest > 0);
+        while (suffix.length() < 2) suffix.append('X');
+        return PREFIXES[p] + digit + suffix;
+    }
+
+    private boolean serve(Request request, Response response, Callback callback) throws Exception {
+        requests.incrementAndGet();
+        firstRequestNanos.compareAndSet(0L, System.nanoTime());
+        String path = Request.getPathInContext(request);
+
+        if (path.equals("/publiclogs/") || path.equals("/publiclogs")) {
+            writeHtml(response, callback, indexPage());
+            return true;
+        }
+        Matcher year = YEAR_PAGE.matcher(path);
+        if (year.matches() && config.years().contains(year.group(1))) {
+            writeHtml(response, callback, yearPage(year.group(1)));
+            return true;
+        }
+        Matcher log = LOG_FILE.matcher(path);
+        if (log.matches() && config.years().contains(log.group(1))) {
+            serveLog(request, response, callback, log.group(1), log.group(2));
+            return true;
+        }
+        Response.writeError(request, response, callback, 404);
+        return true;
+    }
+
+    private void serveLog(Request request, Response response, Callback callback, String year, String name) throws Exception {
+        if (config.latencyMs() > 0) Thread.sleep(config.latencyMs());
+
+        Connection connection = request.getConnectionMetaData().getConnection();
+        if (config.goAwayEvery() > 0 && connection instanceof HTTP2Connection h2
+                && requests.get() % config.goAwayEvery() == 0) {
+            // GOAWAY: probíhající stream se ještě dokončí, nové musí jít jiným spojením
+            goAways.incrementAndGet();
+            h2.getSession().close(0, "mock goaway", Callback.NOOP);
+        }
+
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        if (rnd.nextDouble() < config.errorRate()) {
+            errors.incrementAndGet();
+            Response.writeError(request, response, callback, 503);
+            return;
+        }
+
+        byte[] body = logBody(year, name);
+        String etag = "\"" + HexFormat.of().formatHex(java.security.MessageDigest.getInstance("MD5").digest(body)) + "\"";
+        if (config.encoding() != null) {
+            response.getHeaders().put(HttpHeader.VARY, "Accept-Encoding");
+            String accept = request.getHeaders().get(HttpHeader.ACCEPT_ENCODING);
+            // Range jen nad identitou, jako u většiny serverů s kompresí za běhu
+            if (accept != null && accept.contains(config.encoding()) && request.getHeaders().get(HttpHeader.RANGE) == null) {
+                body = encoded.computeIfAbsent(year + "/" + name, k -> encode(logBody(year, name), config.encoding()));
+                // zakódovaná varianta má vlastní ETag (jako mod_deflate)
+                etag = etag.substring(0, etag.length() - 1) + "-" + config.encoding() + "\"";
+                response.getHeaders().put(HttpHeader.CONTENT_ENCODING, config.encoding());
+            }
+        }
+        response.getHeaders().put(HttpHeader.ETAG, etag);
+        response.getHeaders().put(HttpHeader.LAST_MODIFIED, LAST_MODIFIED);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, "text/plain");
+
+        if (HttpMethod.HEAD.is(request.getMethod())) {
+            response.setStatus(200);
+            response.getHeaders().put(HttpHeader.CONTENT_LENGTH, body.length);
+            heads.incrementAndGet();
+            callback.succeeded();
+            return;
+        }
+        if (etag.equals(request.getHeaders().get(HttpHeader.IF_NONE_MATCH))) {
+            response.setStatus(304);
+            callback.succeeded();
+            return;
+        }
+
+        int offset = 0;
+        String range = request.getHeaders().get(HttpHeader.RANGE);
+        String ifRange = request.getHeaders().get(HttpHeader.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(etag) || ifRange.equals(LAST_MODIFIED))) {
+            Matcher m = RANGE.matcher(range);
+            if (m.matches()) {
+                offset = Integer.parseInt(m.group(1));
+                if (offset >= body.length) {
+                    Response.writeError(request, response, callback, 416);
+                    return;
+                }
+                response.setStatus(206);
+                response.getHeaders().put(HttpHeader.CONTENT_RANGE, "bytes " + offset + "-" + (body.length - 1) + "/" + body.length);
+            }
+        }
+        if (offset == 0) response.setStatus(200);
+        response.getHeaders().put(HttpHeader.CONTENT_LENGTH, body.length - offset);
+
+        boolean reset = rnd.nextDouble() < config.resetRate();
+        int end = reset ? offset + (body.length - offset) / 2 : body.length;
+        OutputStream out = Content.Sink.asOutputStream(response);
+        int chunk = 8192;
+        for (int pos = offset; pos < end; pos += chunk) {
+            int n = Math.min(chunk, end - pos);
+            out.write(body, pos, n);
+            bytesSent.addAndGet(n);
+            if (config.bytesPerSecond() > 0) {
+                out.flush();
+                Thread.sleep(Math.max(1L, n * 1000L / config.bytesPerSecond()));
+            }
+        }
+        if (reset) {
+            // spojení spadne uprostřed těla -> klient uvidí neúplný přenos (stream se už nezavírá)
+            out.flush();
+            resets.incrementAndGet();
+            connection.getEndPoint().close();
+            callback.failed(new IOException("mock connection reset"));
+            return;
+        }
+        out.close();
+        callback.succeeded();
+    }
+
+    private static void writeHtml(Response response, Callback callback, String html) {
+        response.setStatus(200);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, "text/html; charset=utf-8");
+        Content.Sink.write(response, true, html, callback);
+    }
+
+    private String indexPage() {
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html><head><title>CQ WW Public Logs</title></head><body>\n<table>\n");
+        for (String y : config.years()) {
+            sb.append("<tr><td>").append(y, 0, 4).append("</td><td><a href=\"").append(y).append("/\">")
+                    .append(y.substring(4).toUpperCase(Locale.ROOT)).append("</a></td></tr>\n");
+        }
+        return sb.append("</table>\n</body></html>\n").toString();
+    }
+
+    private String yearPage(String year) {
+        StringBuilder sb = new StringBuilder(config.logsPerYear() * 48 + 256);
+        sb.append("<!DOCTYPE html>\n<html><head><title>").append(year).append("</title></head><body>\n<table>\n");
+        for (int i = 0; i < config.logsPerYear(); i++) {
+            String call = call(i);
+            sb.append("<tr><td><a href=\"").append(call.toLowerCase(Locale.ROOT)).append(".log\">")
+                    .append(call).append("</a></td></tr>\n");
+        }
+        return sb.append("</table>\n</body></html>\n").toString();
+    }
+
+    /**
+     * Deterministic Cabrillo log of about {@code logSize} bytes (+-25 %).
+     */
+    byte[] logBody(String year, String name) {
+        SplittableRandom rnd = new SplittableRandom((year + "/" + name).hashCode());
+        int size = (int) (config.logSize() * (0.75 + rnd.nextDouble() * 0.5));
+        String call = name.toUpperCase(Locale.ROOT);
+        String mode = year.endsWith("cw") ? "CW" : year.endsWith("ph") ? "PH" : "RY";
+
+        StringBuilder sb = new StringBuilder(size + 128);
+        sb.append("START-OF-LOG: 3.0\nCALLSIGN: ").append(call).append("\nCONTEST: CQ-WW-").append(mode)
+                .append("\nCATEGORY-OPERATOR: SINGLE-OP\nCREATED-BY: mock-cqww\n");
+        while (sb.length() < size) {
+            sb.append("QSO: ").append(3500 + rnd.nextInt(25000)).append(' ').append(mode).append(' ')
+                    .append(year, 0, 4).append("-11-30 ").append(String.format("%02d%02d", rnd.nextInt(24), rnd.nextInt(60)))
+                    .append(' ').append(call).append(" 599 15 ").append(call(rnd.nextInt(100_000)))
+                    .append(" 599 ").append(1 + rnd.nextInt(40)).append('\n');
+        }
+        sb.append("END-OF-LOG:\n");
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] encode(byte[] body, String encoding) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 3);
+        try (OutputStream out = encoding.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * Standalone server: --port, --logs, --logSize, --latencyMs, --bandwidth (B/s), --errorRate, --resetRate,
+     * --goAwayEvery, --http2=false, --encoding=gzip|deflate.
+     */
+    public static void main(String[] args) throws Exception {
+        Config c = Config.defaults().withPort(8080);
+        List<String> unknown = new ArrayList<>();
+        for (String a : args) {
+            String[] kv = a.replaceFirst("^--", "").split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "true";
+            switch (kv[0]) {
+                case "port" -> c = c.withPort(Integer.parseInt(v));
+                case "logs" -> c = c.withLogs(Integer.parseInt(v), c.logSize());
+                case "logSize" -> c = c.withLogs(c.logsPerYear(), Integer.parseInt(v));
+                case "latencyMs" -> c = c.withLatency(Long.parseLong(v));
+                case "bandwidth" -> c = c.withBandwidth(Long.parseLong(v));
+                case "errorRate" -> c = c.withErrors(Double.parseDouble(v), c.resetRate());
+                case "resetRate" -> c = c.withErrors(c.errorRate(), Double.parseDouble(v));
+                case "goAwayEvery" -> c = c.withGoAwayEvery(Integer.parseInt(v));
+                case "http2" -> c = c.withHttp2(Boolean.parseBoolean(v));
+                case "encoding" -> c = c.withEncoding(v);
+                default -> unknown.add(a);
+            }
+        }
+        if (!unknown.isEmpty()) System.err.println("Ignored arguments: " + unknown);
+        MockCqwwServer server = new MockCqwwServer(c);
+        System.out.println("Mock cqww server: " + server.indexUrl() + " " + c);
+        server.server.join();
+    }
+}
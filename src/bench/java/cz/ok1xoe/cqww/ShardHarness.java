@@ -0,0 +1,161 @@
+package cz.ok1xoe.cqww;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Multi-node download on one host: runs {@code --shard=i/n} as n separate JVM processes in parallel against
+ * {@link MockCqwwServer} into one shared directory, then merges the shard results.
+ * <p>
+ * Checks that the shards together fetched every log exactly once (log requests seen by the server) and that the
+ * merge reports no gaps. {@code --drop=k} leaves shard k out of the first pass to show the gap report, then runs
+ * it alone and merges again. Also prints how many logs would move to another node with n + 1 shards.
+ * <p>
+ * {@code mvn -Pbench test-compile exec:exec -Dbench.main=cz.ok1xoe.cqww.ShardHarness
+ * -Dbench.args="--shards=3 --logs=500 --drop=2"}
+ * <p>
+ * Other arguments are passed to every shard (e.g. {@code --maxConcurrent=20 --store=cas}).
+ */
+public final class ShardHarness {
+
+    private record Run(int shard, int exit, double seconds, Path log) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int shards = 3;
+        int logs = 500;
+        int logSize = 20_000;
+        int drop = 0;
+        List<String> extra = new ArrayList<>();
+        for (String a : args) {
+            String[] kv = a.replaceFirst("^--", "").split("=", 2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "shards" -> shards = Integer.parseInt(v);
+                case "logs" -> logs = Integer.parseInt(v);
+                case "logSize" -> logSize = Integer.parseInt(v);
+                case "drop" -> drop = Integer.parseInt(v);
+                default -> extra.add(a);
+            }
+        }
+
+        MockCqwwServer.Config config = MockCqwwServer.Config.defaults().withLogs(logs, logSize);
+        int total = config.years().size() * logs;
+        int pagesPerShard = 1 + config.years().size();
+        Path work = Files.createTempDirectory("cqww-shards");
+        Path out = work.resolve("mirror");
+        try (MockCqwwServer server = new MockCqwwServer(config)) {
+            List<Integer> first = new ArrayList<>();
+            for (int i = 1; i <= shards; i++) if (i != drop) first.add(i);
+
+            System.out.printf(Locale.ROOT, "%d shards, %d logs in %d categories, server %s%n",
+                    shards, total, config.years().size(), server.indexUrl());
+            long start = System.nanoTime();
+            List<Run> runs = runShards(server, work, out, first, shards, extra);
+            double wall = (System.nanoTime() - start) / 1e9;
+            print(runs, out, shards, wall);
+            Shard.MergeResult merged = Shard.merge(out);
+            System.out.printf(Locale.ROOT, "merge: %d categories, %d listed, %d delivered, %d gaps%n",
+                    merged.categories(), merged.listed(), merged.delivered(), merged.gaps());
+
+            if (drop > 0) {
+                System.out.printf(Locale.ROOT, "%nrunning the dropped shard %d/%d%n", drop, shards);
+                runs = runShards(server, work, out, List.of(drop), shards, extra);
+                print(runs, out, shards, runs.getFirst().seconds());
+                merged = Shard.merge(out);
+                System.out.printf(Locale.ROOT, "merge: %d categories, %d listed, %d delivered, %d gaps%n",
+                        merged.categories(), merged.listed(), merged.delivered(), merged.gaps());
+            }
+
+            int passes = drop > 0 ? 2 : 1;
+            long logRequests = server.requests.get() - (long) pagesPerShard * shards;
+            System.out.println();
+            System.out.printf(Locale.ROOT, "log requests: %d (expected %d, %s)%n", logRequests, total,
+                    logRequests == total ? "each log fetched once" : "OVERLAP OR RETRIES");
+            System.out.printf(Locale.ROOT, "files on disk: %d of %d, merge gaps: %d (%d pass%s)%n",
+                    countLogs(out), total, merged.gaps(), passes, passes > 1 ? "es" : "");
+            System.out.printf(Locale.ROOT, "going to %d shards moves %.1f %% of the logs (ideal %.1f %%)%n",
+                    shards + 1, 100.0 * moved(config, shards), 100.0 / (shards + 1));
+            if (merged.gaps() > 0 || merged.delivered() != total) System.exit(1);
+        } finally {
+            delete(work);
+        }
+    }
+
+    private static List<Run> runShards(MockCqwwServer server, Path work, Path out, List<Integer> shards, int count,
+                                       List<String> extra) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        List<Path> logs = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i : shards) {
+            // každý shard ve vlastním pracovním adresáři (logs/ Logbacku), cíl je společný
+            Path dir = Files.createDirectories(work.resolve("node-" + i));
+            Path log = dir.resolve("console.txt");
+            List<String> cmd = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                    Launcher.class.getName(), "--fast", "--url=" + server.indexUrl(), "--out=" + out,
+                    "--shard=" + i + "/" + count, "--cache=false", "--progress=off", "--retries=5"));
+            cmd.addAll(extra);
+            processes.add(new ProcessBuilder(cmd).directory(dir.toFile())
+                    .redirectErrorStream(true).redirectOutput(log.toFile()).start());
+            logs.add(log);
+        }
+        List<Run> runs = new ArrayList<>();
+        for (int k = 0; k < processes.size(); k++) {
+            int exit = processes.get(k).waitFor();
+            runs.add(new Run(shards.get(k), exit, (System.nanoTime() - start) / 1e9, logs.get(k)));
+        }
+        return runs;
+    }
+
+    private static void print(List<Run> runs, Path out, int count, double wall) throws IOException {
+        System.out.printf(Locale.ROOT, "%-6s %6s %8s %8s%n", "shard", "exit", "logs", "seconds");
+        for (Run r : runs) {
+            System.out.printf(Locale.ROOT, "%-6s %6d %8d %8.2f%n", r.shard() + "/" + count, r.exit(),
+                    countOwned(out, r.shard(), count), r.seconds());
+            if (r.exit() != 0) System.out.println("  see " + r.log());
+        }
+        System.out.printf(Locale.ROOT, "wall time %.2f s%n", wall);
+    }
+
+    /**
+     * Logs on disk that belong to the shard.
+     */
+    private static long countOwned(Path out, int shard, int count) throws IOException {
+        try (Stream<Path> files = Files.walk(out)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(".log") && Shard.owner(n, count) == shard)
+                    .count();
+        }
+    }
+
+    private static long countLogs(Path out) throws IOException {
+        try (Stream<Path> files = Files.walk(out)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    /**
+     * Share of the server's logs whose owner changes between n and n + 1 shards.
+     */
+    private static double moved(MockCqwwServer.Config config, int shards) {
+        int moved = 0;
+        for (int i = 0; i < config.logsPerYear(); i++) {
+            String name = MockCqwwServer.call(i).toLowerCase(Locale.ROOT) + ".log";
+            if (Shard.owner(name, shards) != Shard.owner(name, shards + 1)) moved++;
+        }
+        return (double) moved / config.logsPerYear();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cz.ok1xoe.cqww;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Cold start of a single targeted lookup ({@code --call --year --mode}) as a separate JVM process:
+ * time to the first HTTP request seen by {@link MockCqwwServer} and time until the process exits.
+ * <p>
+ * Compares the Spring Boot launch, {@code --fast} and {@code --fast} with the CDS archive (if built):
+ * {@code mvn -Pcds package && mvn -Pbench test-compile exec:exec -Dbench.main=cz.ok1xoe.cqww.StartupBenchmark
+ * -Dbench.args="--runs=10"}
+ */
+public final class StartupBenchmark {
+
+    private record Variant(String name, List<String> command) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = 10;
+        Path target = Path.of("target");
+        for (String a : args) {
+            String[] kv = a.replaceFirst("^--", "").split("=", 2);
+            switch (kv[0]) {
+                case "runs" -> runs = Integer.parseInt(kv[1]);
+                case "target" -> target = Path.of(kv[1]);
+                default -> throw new IllegalArgumentException("Unknown option: " + a + " (runs, target)");
+            }
+        }
+
+        Path jar = findJar(target);
+        Path cdsDir = target.resolve("cds");
+        Path cdsJar = cdsDir.resolve(jar.getFileName());
+        Path archive = cdsDir.resolve("app.jsa");
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<Variant> variants = new ArrayList<>();
+        variants.add(new Variant("spring", List.of(java, "-jar", jar.toAbsolutePath().toString())));
+        variants.add(new Variant("fast", List.of(java, "-jar", jar.toAbsolutePath().toString(), "--fast")));
+        if (Files.exists(archive) && Files.exists(cdsJar)) {
+            variants.add(new Variant("fast+cds", List.of(java, "-XX:SharedArchiveFile=" + archive.toAbsolutePath(),
+                    "-Xlog:cds=off", "-jar", cdsJar.toAbsolutePath().toString(), "--fast")));
+        } else {
+            System.out.println("No CDS archive in " + cdsDir + " (mvn -Pcds package), skipping fast+cds");
+        }
+
+        MockCqwwServer.Config config = MockCqwwServer.Config.defaults().withLogs(200, 40_000);
+        try (MockCqwwServer server = new MockCqwwServer(config)) {
+            List<String> lookup = List.of("--call=" + MockCqwwServer.call(0), "--year=2024", "--mode=SSB",
+                    "--url=" + server.indexUrl(), "--cache=false", "--progress=off");
+
+            System.out.printf(Locale.ROOT, "%-9s %14s %14s %12s %12s%n",
+                    "variant", "first req ms", "(min)", "exit ms", "(min)");
+            for (Variant v : variants) {
+                long[] first = new long[runs];
+                long[] total = new long[runs];
+                run(server, v, lookup); // zahřátí page cache
+                for (int i = 0; i < runs; i++) {
+                    long[] r = run(server, v, lookup);
+                    first[i] = r[0];
+                    total[i] = r[1];
+                }
+                Arrays.sort(first);
+                Arrays.sort(total);
+                System.out.printf(Locale.ROOT, "%-9s %14.0f %14.0f %12.0f %12.0f%n", v.name(),
+                        first[runs / 2] / 1e6, first[0] / 1e6, total[runs / 2] / 1e6, total[0] / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Returns {time to first request, time to exit} in nanoseconds.
+     */
+    private static long[] run(MockCqwwServer server, Variant v, List<String> lookup) throws Exception {
+        Path dir = Files.createTempDirectory("cqww-startup");
+        try {
+            List<String> cmd = new ArrayList<>(v.command());
+            cmd.addAll(lookup);
+            cmd.add("--out=" + dir);
+            server.firstRequestNanos.set(0L);
+            long start = System.nanoTime();
+            Process p = new ProcessBuilder(cmd).directory(dir.toFile())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            int code = p.waitFor();
+            long end = System.nanoTime();
+            long first = server.firstRequestNanos.get();
+            if (code != 0 || first == 0L) {
+                throw new IllegalStateException(v.name() + " failed (exit " + code + ", request seen: " + (first != 0L) + ")");
+            }
+            return new long[]{first - start, end - start};
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+
+    private static Path findJar(Path target) throws IOException {
+        try (Stream<Path> files = Files.list(target)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".jar"))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No jar in " + target + " (mvn package)"));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package cz.ok1xoe.cqww;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Index page: year category discovery (extractYearLinks + YEAR_PATTERN, as in discoverYearLinksFromIndex)
+ * vs. the streaming extractor with the same filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YearLinkDiscoveryBenchmark {
+
+    static final String INDEX_URL = "https://cqww.com/publiclogs/";
+
+    private byte[] page;
+
+    @Setup
+    public void setup() throws IOException {
+        page = Fixtures.load("index.html");
+        Map<String, String> jsoup = jsoup();
+        Map<String, String> streaming = streaming();
+        if (jsoup.isEmpty() || !jsoup.equals(streaming)) {
+            throw new IllegalStateException("Year links differ: " + jsoup.keySet() + " vs " + streaming.keySet());
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> jsoup() throws IOException {
+        Map<String, String> years = new LinkedHashMap<>();
+        CqwwLogDownloaderApplication.extractYearLinks(new ByteArrayInputStream(page), null, INDEX_URL,
+                abs -> add(years, abs));
+        return years;
+    }
+
+    @Benchmark
+    public Map<String, String> streaming() throws IOException {
+        Map<String, String> years = new LinkedHashMap<>();
+        StreamingLinkExtractor.extract(new ByteArrayInputStream(page), null, INDEX_URL,
+                uri -> CqwwLogDownloaderApplication.YEAR_PATTERN.matcher(uri.toString()).find(), abs -> add(years, abs));
+        return years;
+    }
+
+    private static void add(Map<String, String> years, String abs) {
+        Matcher m = CqwwLogDownloaderApplication.YEAR_PATTERN.matcher(abs);
+        if (m.find()) {
+            years.putIfAbsent(m.group(1) + m.group(2).toLowerCase(Locale.ROOT), abs);
+        }
+    }
+}
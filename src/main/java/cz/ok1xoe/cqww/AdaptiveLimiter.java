@@ -0,0 +1,167 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD concurrency limiter (replacement of the fixed Semaphore).
+ * <p>
+ * Slow start until the first overload signal, then additive increase (+1 per "limit" successes).
+ * GOAWAY, 429/503 and timeouts halve the limit; rising latency reduces it by 10 %.
+ * A fixed limit is obtained with {@code minLimit == maxLimit}.
+ */
+@Slf4j
+final class AdaptiveLimiter {
+
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    // ReentrantLock místo synchronized -> nepinuje carrier thread virtuálních vláken
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private int inFlight;
+    private boolean slowStart = true;
+    private double shortRttMs = -1;
+    private double longRttMs = -1;
+    private long lastDecreaseNanos;
+    private long lastLogNanos = System.nanoTime();
+
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = clamp(initialLimit);
+    }
+
+    static AdaptiveLimiter fixed(int limit) {
+        return new AdaptiveLimiter(limit, limit, limit);
+    }
+
+    static AdaptiveLimiter adaptive(int maxLimit) {
+        return new AdaptiveLimiter(Math.min(8, maxLimit), 1, maxLimit);
+    }
+
+    boolean isAdaptive() {
+        return minLimit != maxLimit;
+    }
+
+    void acquireUninterruptibly() {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                available.awaitUninterruptibly();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            // uvolnil se jeden slot -> stačí vzbudit jednoho čekajícího (signalAll jen při růstu limitu)
+            if (inFlight < (int) limit) available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Successful response; {@code rttNanos} is the time until response headers arrived.
+     */
+    void onSuccess(long rttNanos) {
+        if (!isAdaptive()) return;
+        lock.lock();
+        try {
+            double rttMs = rttNanos / 1_000_000.0;
+            if (longRttMs < 0) {
+                shortRttMs = rttMs;
+                longRttMs = rttMs;
+            } else {
+                shortRttMs = shortRttMs * 0.8 + rttMs * 0.2;
+                longRttMs = longRttMs * 0.99 + rttMs * 0.01;
+            }
+
+            if (shortRttMs > longRttMs * LATENCY_TOLERANCE) {
+                decrease(0.9, "latency " + Math.round(shortRttMs) + "ms vs baseline " + Math.round(longRttMs) + "ms");
+            } else if (inFlight * 2 >= (int) limit) {
+                // zvyšujeme jen pokud je limit skutečně využitý
+                double old = limit;
+                limit = clamp(slowStart ? limit + 1 : limit + 1.0 / limit);
+                if ((int) old != (int) limit) available.signalAll();
+            }
+            maybeLog();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Overload signal from the server (GOAWAY, 429, 503, timeout).
+     */
+    void onOverload(String reason) {
+        if (!isAdaptive()) return;
+        lock.lock();
+        try {
+            slowStart = false;
+            decrease(0.5, reason);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(double factor, String reason) {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) return;
+        lastDecreaseNanos = now;
+        slowStart = false;
+        int old = (int) limit;
+        limit = clamp(limit * factor);
+        if ((int) limit != old) {
+            log.info("Concurrency limit {} -> {} ({})", old, (int) limit, reason);
+        }
+    }
+
+    private void maybeLog() {
+        long now = System.nanoTime();
+        if (now - lastLogNanos >= LOG_INTERVAL_NANOS) {
+            lastLogNanos = now;
+            log.info("Concurrency limit: {} (in flight: {}, latency: {}ms)", (int) limit, inFlight, Math.round(shortRttMs));
+        }
+    }
+
+    private double clamp(double v) {
+        return Math.max(minLimit, Math.min(maxLimit, v));
+    }
+
+    /**
+     * Errors meaning "server is overloaded / limiting us".
+     */
+    static boolean isOverload(Throwable e) {
+        if (e instanceof HttpDownloadUtils.HttpStatusException hse) {
+            return hse.getStatusCode() == 429 || hse.getStatusCode() == 503;
+        }
+        if (e instanceof HttpTimeoutException) return true;
+        return HttpClientPool.isGoAway(e);
+    }
+}
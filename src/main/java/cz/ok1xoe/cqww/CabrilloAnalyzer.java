@@ -0,0 +1,513 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Statistics over downloaded Cabrillo logs: QSOs per band, mode and hour, per log and per category.
+ * <p>
+ * Logs are parsed in parallel (parallel stream on the common fork/join pool) straight from memory-mapped files,
+ * or from {@code logs.zip} archives. {@code QSO:} lines are scanned byte by byte without creating a String per line;
+ * Strings are only made for the few header values that are reported.
+ */
+@Slf4j
+final class CabrilloAnalyzer {
+
+    static final String[] BANDS = {"160", "80", "40", "20", "15", "10", "other"};
+    static final String[] MODES = {"CW", "PH", "RY", "DG", "FM", "other"};
+    private static final int CELLS = BANDS.length * MODES.length;
+    private static final byte[] QSO = "QSO:".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String[] HEADERS = {"CALLSIGN", "CATEGORY-OPERATOR", "CATEGORY-BAND", "CATEGORY-MODE",
+            "CATEGORY-POWER", "CATEGORY-ASSISTED", "CATEGORY-TRANSMITTER", "CLAIMED-SCORE"};
+
+    /**
+     * Result for one log. {@code hours} maps the UTC hour (epoch hours) to QSO counts per band x mode cell.
+     */
+    record LogStats(String category, String file, String[] headers, int qsos, int badLines,
+                    int[] cells, Map<Integer, int[]> hours) {
+    }
+
+    /**
+     * Aggregate of one category directory.
+     */
+    record CategoryStats(String category, int logs, long qsos, long badLines, long[] cells, Map<Integer, long[]> hours) {
+    }
+
+    record Report(List<LogStats> logs, List<CategoryStats> categories) {
+    }
+
+    /**
+     * One stored log: a plain file, or an {@code entry} of a {@code logs.zip} archive.
+     */
+    record Source(String category, Path file, String entry) {
+        String name() {
+            return entry != null ? entry : file.getFileName().toString();
+        }
+
+        @Override
+        public String toString() {
+            return entry != null ? file + "!" + entry : file.toString();
+        }
+    }
+
+    private CabrilloAnalyzer() {
+    }
+
+    /**
+     * Analyzes all {@code *_CQWW*_LOGS} directories under {@code root}; without them {@code root} itself is one category.
+     */
+    static Report analyze(Path root) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        for (Path dir : categories(root)) sources.addAll(sources(dir));
+
+        long start = System.nanoTime();
+        List<LogStats> logs;
+        try (Contents contents = new Contents(sources)) {
+            logs = sources.parallelStream().map(s -> analyze(s, contents)).toList();
+        }
+        long bytes = sources.stream().filter(s -> s.entry() == null).mapToLong(s -> s.file().toFile().length()).sum();
+        log.info("Analyzed {} logs ({} MB in files) in {} ms on {} threads", logs.size(), bytes / 1_048_576,
+                (System.nanoTime() - start) / 1_000_000, Runtime.getRuntime().availableProcessors());
+
+        Map<String, List<LogStats>> byCategory = new TreeMap<>();
+        logs.forEach(l -> byCategory.computeIfAbsent(l.category(), k -> new ArrayList<>()).add(l));
+        List<CategoryStats> aggregates = byCategory.entrySet().stream().map(e -> merge(e.getKey(), e.getValue())).toList();
+        return new Report(logs, aggregates);
+    }
+
+    /**
+     * The {@code *_CQWW*_LOGS} directories under {@code root}, or {@code root} itself when there are none.
+     */
+    static List<Path> categories(Path root) throws IOException {
+        List<Path> categories;
+        try (Stream<Path> dirs = Files.list(root)) {
+            categories = dirs.filter(Files::isDirectory)
+                    .filter(d -> d.getFileName().toString().matches("(?i).*_CQWW.*_LOGS"))
+                    .sorted()
+                    .toList();
+        }
+        return categories.isEmpty() ? List.of(root) : categories;
+    }
+
+    static String categoryName(Path dir) {
+        return dir.toAbsolutePath().normalize().getFileName().toString();
+    }
+
+    /**
+     * Logs of one category directory: {@code *.log} files and the entries of its {@code logs.zip}.
+     */
+    static List<Source> sources(Path dir) throws IOException {
+        String category = categoryName(dir);
+        List<Source> sources = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(Files::isRegularFile).sorted().forEach(f -> {
+                String name = f.getFileName().toString();
+                if (name.toLowerCase(Locale.ROOT).endsWith(".log")) {
+                    sources.add(new Source(category, f, null));
+                } else if (name.equals(ZipLogStore.ARCHIVE_NAME)) {
+                    sources.addAll(zipEntries(category, f));
+                }
+            });
+        }
+        return sources;
+    }
+
+    /**
+     * Reads the content of sources: plain files are memory-mapped, every {@code logs.zip} is opened once
+     * (its central directory read once) and shared by all threads reading its entries.
+     */
+    static final class Contents implements AutoCloseable {
+        private final Map<Path, ZipFile> archives = new HashMap<>();
+
+        Contents(List<Source> sources) throws IOException {
+            try {
+                for (Source s : sources) {
+                    if (s.entry() != null && !archives.containsKey(s.file())) {
+                        archives.put(s.file(), new ZipFile(s.file().toFile()));
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Content of a log: the memory-mapped file, or the unpacked zip entry.
+         */
+        ByteBuffer content(Source s) throws IOException {
+            if (s.entry() == null) {
+                try (FileChannel ch = FileChannel.open(s.file(), StandardOpenOption.READ)) {
+                    // mapování zůstává platné i po zavření kanálu
+                    return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                }
+            }
+            // zip: obsah se musí rozbalit, mapovat nelze; ZipFile je pro souběžné čtení bezpečný
+            ZipFile zf = archives.get(s.file());
+            ZipEntry entry = zf.getEntry(s.entry());
+            if (entry == null) throw new IOException("Missing entry " + s);
+            try (InputStream in = zf.getInputStream(entry)) {
+                return ByteBuffer.wrap(in.readAllBytes());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (ZipFile zf : archives.values()) {
+                try {
+                    zf.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                    else failure.addSuppressed(e);
+                }
+            }
+            archives.clear();
+            if (failure != null) throw failure;
+        }
+    }
+
+    private static List<Source> zipEntries(String category, Path zip) {
+        try (ZipFile zf = new ZipFile(zip.toFile())) {
+            return zf.stream().filter(e -> !e.isDirectory())
+                    .map(e -> new Source(category, zip, e.getName()))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + zip, e);
+        }
+    }
+
+    private static LogStats analyze(Source s, Contents contents) {
+        try {
+            return parse(s.category(), s.name(), contents.content(s));
+        } catch (IOException e) {
+            log.warn("Cannot read {} ({})", s, e.getMessage());
+            return new LogStats(s.category(), s.name(), new String[HEADERS.length], 0, 0, new int[CELLS], Map.of());
+        }
+    }
+
+    /**
+     * Parses one Cabrillo log. Only absolute buffer reads, no per-line objects for QSO lines.
+     */
+    static LogStats parse(String category, String file, ByteBuffer buf) {
+        String[] headers = new String[HEADERS.length];
+        int[] cells = new int[CELLS];
+        Map<Integer, int[]> hours = new HashMap<>();
+        int qsos = 0;
+        int bad = 0;
+        // QSO řádky jdou chronologicky -> cache poslední hodiny ušetří hledání v mapě
+        int lastHour = Integer.MIN_VALUE;
+        int[] lastHourCells = null;
+
+        int limit = buf.limit();
+        int pos = 0;
+        while (pos < limit) {
+            int eol = pos;
+            while (eol < limit && buf.get(eol) != '\n') eol++;
+            int end = eol;
+            if (end > pos && buf.get(end - 1) == '\r') end--;
+
+            if (startsWith(buf, pos, end, QSO)) {
+                int p = skipSpaces(buf, pos + QSO.length, end);
+                // frekvence v kHz
+                int freq = 0;
+                int fStart = p;
+                while (p < end && isDigit(buf.get(p))) freq = freq * 10 + (buf.get(p++) - '0');
+                boolean hasFreq = p > fStart;
+                while (p < end && buf.get(p) != ' ') p++; // případná desetinná část
+                p = skipSpaces(buf, p, end);
+                int mStart = p;
+                while (p < end && buf.get(p) != ' ') p++;
+                int mode = mode(buf, mStart, p);
+                p = skipSpaces(buf, p, end);
+                int hour = hourKey(buf, p, end);
+                if (!hasFreq || hour == Integer.MIN_VALUE) {
+                    bad++;
+                } else {
+                    int cell = band(freq) * MODES.length + mode;
+                    cells[cell]++;
+                    qsos++;
+                    if (hour != lastHour) {
+                        lastHour = hour;
+                        lastHourCells = hours.computeIfAbsent(hour, k -> new int[CELLS]);
+                    }
+                    lastHourCells[cell]++;
+                }
+            } else {
+                header(buf, pos, end, headers);
+            }
+            pos = eol + 1;
+        }
+        return new LogStats(category, file, headers, qsos, bad, cells, hours);
+    }
+
+    private static void header(ByteBuffer buf, int from, int to, String[] headers) {
+        int colon = from;
+        while (colon < to && buf.get(colon) != ':') colon++;
+        if (colon == to) return;
+        for (int i = 0; i < HEADERS.length; i++) {
+            if (headers[i] == null && equalsAscii(buf, from, colon, HEADERS[i])) {
+                int v = skipSpaces(buf, colon + 1, to);
+                int e = to;
+                while (e > v && buf.get(e - 1) == ' ') e--;
+                byte[] value = new byte[e - v];
+                buf.get(v, value);
+                headers[i] = new String(value, StandardCharsets.US_ASCII);
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@code yyyy-mm-dd hhmm} -> hours since epoch, or MIN_VALUE when malformed.
+     */
+    private static int hourKey(ByteBuffer buf, int p, int end) {
+        if (end - p < 15 || buf.get(p + 4) != '-' || buf.get(p + 7) != '-' || buf.get(p + 10) != ' ') return Integer.MIN_VALUE;
+        int y = digits(buf, p, 4);
+        int m = digits(buf, p + 5, 2);
+        int d = digits(buf, p + 8, 2);
+        int hh = digits(buf, p + 11, 2);
+        if (y < 0 || m < 1 || m > 12 || d < 1 || d > 31 || hh < 0 || hh > 23 || digits(buf, p + 13, 2) < 0) {
+            return Integer.MIN_VALUE;
+        }
+        return epochDay(y, m, d) * 24 + hh;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date, without allocating a LocalDate per line.
+     */
+    static int epochDay(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    static int band(int kHz) {
+        if (kHz >= 1800 && kHz <= 2000) return 0;
+        if (kHz >= 3500 && kHz <= 4000) return 1;
+        if (kHz >= 7000 && kHz <= 7300) return 2;
+        if (kHz >= 14000 && kHz <= 14350) return 3;
+        if (kHz >= 21000 && kHz <= 21450) return 4;
+        if (kHz >= 28000 && kHz <= 29700) return 5;
+        return 6;
+    }
+
+    static int mode(ByteBuffer buf, int from, int to) {
+        if (to - from != 2) return to - from == 3 && equalsAscii(buf, from, to, "SSB") ? 1 : 5;
+        int a = buf.get(from) & 0xDF;
+        int b = buf.get(from + 1) & 0xDF;
+        if (a == 'C' && b == 'W') return 0;
+        if (a == 'P' && b == 'H') return 1;
+        if (a == 'R' && b == 'Y') return 2;
+        if (a == 'D' && b == 'G') return 3;
+        if (a == 'F' && b == 'M') return 4;
+        return 5;
+    }
+
+    static int digits(ByteBuffer buf, int p, int n) {
+        int v = 0;
+        for (int i = 0; i < n; i++) {
+            byte c = buf.get(p + i);
+            if (!isDigit(c)) return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static int skipSpaces(ByteBuffer buf, int p, int end) {
+        while (p < end && (buf.get(p) == ' ' || buf.get(p) == '\t')) p++;
+        return p;
+    }
+
+    static boolean startsWith(ByteBuffer buf, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if ((buf.get(from + i) & 0xDF) != (prefix[i] & 0xDF)) return false;
+        }
+        return true;
+    }
+
+    private static boolean equalsAscii(ByteBuffer buf, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int c = buf.get(from + i);
+            if (c >= 'a' && c <= 'z') c -= 32;
+            if (c != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static CategoryStats merge(String category, List<LogStats> logs) {
+        long[] cells = new long[CELLS];
+        Map<Integer, long[]> hours = new TreeMap<>();
+        long qsos = 0;
+        long bad = 0;
+        for (LogStats l : logs) {
+            qsos += l.qsos();
+            bad += l.badLines();
+            for (int i = 0; i < CELLS; i++) cells[i] += l.cells()[i];
+            l.hours().forEach((h, c) -> {
+                long[] acc = hours.computeIfAbsent(h, k -> new long[CELLS]);
+                for (int i = 0; i < CELLS; i++) acc[i] += c[i];
+            });
+        }
+        return new CategoryStats(category, logs.size(), qsos, bad, cells, hours);
+    }
+
+    // --- výstup ---
+
+    /**
+     * Per-log CSV: headers, QSO total and QSOs per band.
+     */
+    static void writeLogsCsv(Report report, Writer w) throws IOException {
+        w.write("category,file,callsign,operator,band,mode,power,assisted,transmitter,claimed_score,qsos,bad_lines");
+        for (int b = 0; b < BANDS.length; b++) w.write(",qsos_" + BANDS[b]);
+        w.write('\n');
+        List<LogStats> sorted = report.logs().stream()
+                .sorted(Comparator.comparing(LogStats::category).thenComparing(LogStats::file)).toList();
+        for (LogStats l : sorted) {
+            w.write(csv(l.category()) + "," + csv(l.file()));
+            for (String h : l.headers()) w.write("," + csv(h));
+            w.write("," + l.qsos() + "," + l.badLines());
+            for (int b = 0; b < BANDS.length; b++) w.write("," + bandTotal(l.cells(), b));
+            w.write('\n');
+        }
+    }
+
+    /**
+     * Per-category CSV: one row per category, UTC hour, band and mode with QSOs.
+     */
+    static void writeCategoriesCsv(Report report, Writer w) throws IOException {
+        w.write("category,hour_utc,band,mode,qsos\n");
+        for (CategoryStats c : report.categories()) {
+            for (Map.Entry<Integer, long[]> e : c.hours().entrySet()) {
+                String hour = formatHour(e.getKey());
+                long[] cells = e.getValue();
+                for (int i = 0; i < CELLS; i++) {
+                    if (cells[i] == 0) continue;
+                    w.write(csv(c.category()) + "," + hour + "," + BANDS[i / MODES.length] + "," + MODES[i % MODES.length]
+                            + "," + cells[i] + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * JSON with per-category totals (band x mode, per hour) and per-log summaries.
+     */
+    static void writeJson(Report report, Writer w) throws IOException {
+        w.write("{\n  \"categories\": [");
+        String sep = "\n";
+        for (CategoryStats c : report.categories()) {
+            w.write(sep + "    {\"category\": " + json(c.category()) + ", \"logs\": " + c.logs() + ", \"qsos\": " + c.qsos()
+                    + ", \"badLines\": " + c.badLines() + ",\n      \"bands\": " + cellsJson(c.cells()) + ",\n      \"hours\": {");
+            String hs = "";
+            for (Map.Entry<Integer, long[]> e : c.hours().entrySet()) {
+                long total = 0;
+                for (long v : e.getValue()) total += v;
+                w.write(hs + json(formatHour(e.getKey())) + ": " + total);
+                hs = ", ";
+            }
+            w.write("}}");
+            sep = ",\n";
+        }
+        w.write("\n  ],\n  \"logs\": [");
+        sep = "\n";
+        for (LogStats l : report.logs()) {
+            w.write(sep + "    {\"category\": " + json(l.category()) + ", \"file\": " + json(l.file()));
+            for (int i = 0; i < HEADERS.length; i++) {
+                w.write(", " + json(HEADERS[i].toLowerCase(Locale.ROOT)) + ": " + json(l.headers()[i]));
+            }
+            w.write(", \"qsos\": " + l.qsos() + ", \"badLines\": " + l.badLines() + "}");
+            sep = ",\n";
+        }
+        w.write("\n  ]\n}\n");
+    }
+
+    private static String cellsJson(long[] cells) {
+        StringBuilder sb = new StringBuilder("{");
+        String sep = "";
+        for (int b = 0; b < BANDS.length; b++) {
+            StringBuilder modes = new StringBuilder();
+            String ms = "";
+            for (int m = 0; m < MODES.length; m++) {
+                long v = cells[b * MODES.length + m];
+                if (v == 0) continue;
+                modes.append(ms).append('"').append(MODES[m]).append("\": ").append(v);
+                ms = ", ";
+            }
+            if (modes.isEmpty()) continue;
+            sb.append(sep).append('"').append(BANDS[b]).append("\": {").append(modes).append('}');
+            sep = ", ";
+        }
+        return sb.append('}').toString();
+    }
+
+    private static long bandTotal(int[] cells, int band) {
+        long sum = 0;
+        for (int m = 0; m < MODES.length; m++) sum += cells[band * MODES.length + m];
+        return sum;
+    }
+
+    private static String formatHour(int hourKey) {
+        LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(hourKey, 24));
+        return String.format(Locale.ROOT, "%sT%02d", day, Math.floorMod(hourKey, 24));
+    }
+
+    private static String csv(String s) {
+        if (s == null) return "";
+        return s.contains(",") || s.contains("\"") ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+    }
+
+    /**
+     * JSON string literal; header values come from user-submitted logs, so control characters are escaped too.
+     */
+    private static String json(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> {
+                    if (c < 0x20) sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,169 @@
+package cz.ok1xoe.cqww;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Callsign -> int id, ids assigned in order of first appearance and never reused.
+ * <p>
+ * A callsign (at most {@link #MAX_LENGTH} ASCII characters, upper-cased) is packed into two longs, so interning
+ * straight from a log buffer needs no String. The table is open addressing over primitive arrays; the file
+ * {@code calls.bin} holds the packed keys in id order (16 bytes per id) and only grows, so ids stored in
+ * older index segments stay valid. Loading is one bulk copy; the hash table is built only when interning,
+ * a query looks its few calls up by a linear scan of the keys.
+ */
+final class CallDictionary {
+
+    static final String FILE_NAME = "calls.bin";
+    static final int MAX_LENGTH = 16;
+    private static final int ENTRY_BYTES = 16;
+
+    private long[] keys = new long[1024];      // hi, lo po id
+    private int size;
+    private int persisted;
+    private int[] table;                       // id + 1, 0 = prázdné; null = ještě nepostavená
+    private int mask;
+
+    static CallDictionary load(Path dir) throws IOException {
+        CallDictionary d = new CallDictionary();
+        Path file = dir.resolve(FILE_NAME);
+        if (!Files.exists(file)) return d;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+            int n = (int) (ch.size() / ENTRY_BYTES);
+            d.keys = new long[Math.max(1024, 2 * n)];
+            buf.asLongBuffer().get(d.keys, 0, 2 * n);
+            d.size = n;
+        }
+        d.persisted = d.size;
+        return d;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends the ids added since the last save to {@code calls.bin}.
+     */
+    void save(Path dir) throws IOException {
+        if (persisted == size && Files.exists(dir.resolve(FILE_NAME))) return;
+        ByteBuffer buf = ByteBuffer.allocate((size - persisted) * ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = persisted; i < size; i++) buf.putLong(keys[2 * i]).putLong(keys[2 * i + 1]);
+        buf.flip();
+        try (FileChannel ch = FileChannel.open(dir.resolve(FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // zápis od posledního uloženého id, případný zbytek po přerušeném zápisu se přepíše
+            ch.truncate((long) persisted * ENTRY_BYTES);
+            ch.position((long) persisted * ENTRY_BYTES);
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+        }
+        persisted = size;
+    }
+
+    /**
+     * @return id of the callsign, or -1 when it is not in the dictionary (or is too long)
+     */
+    int lookup(String call) {
+        byte[] b = call.trim().toUpperCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+        if (b.length == 0 || b.length > MAX_LENGTH) return -1;
+        long hi = pack(b, 0);
+        long lo = pack(b, 8);
+        if (table == null) {
+            for (int id = 0; id < size; id++) {
+                if (keys[2 * id] == hi && keys[2 * id + 1] == lo) return id;
+            }
+            return -1;
+        }
+        for (int slot = hash(hi, lo) & mask; ; slot = (slot + 1) & mask) {
+            int v = table[slot];
+            if (v == 0) return -1;
+            if (keys[2 * (v - 1)] == hi && keys[2 * (v - 1) + 1] == lo) return v - 1;
+        }
+    }
+
+    /**
+     * Packs the callsign {@code buf[from, to)} (upper-cased) into {@code dst[at]} and {@code dst[at + 1]}.
+     *
+     * @return false when it is empty or longer than {@link #MAX_LENGTH}
+     */
+    static boolean pack(ByteBuffer buf, int from, int to, long[] dst, int at) {
+        int len = to - from;
+        if (len <= 0 || len > MAX_LENGTH) return false;
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < len; i++) {
+            long c = upper(buf.get(from + i)) & 0xFF;
+            if (i < 8) hi |= c << (8 * i);
+            else lo |= c << (8 * (i - 8));
+        }
+        dst[at] = hi;
+        dst[at + 1] = lo;
+        return true;
+    }
+
+    int intern(long hi, long lo) {
+        if (table == null) rehash();
+        int slot = hash(hi, lo) & mask;
+        while (true) {
+            int v = table[slot];
+            if (v == 0) break;
+            if (keys[2 * (v - 1)] == hi && keys[2 * (v - 1) + 1] == lo) return v - 1;
+            slot = (slot + 1) & mask;
+        }
+        int id = size++;
+        if (2 * size > keys.length) keys = Arrays.copyOf(keys, keys.length * 2);
+        keys[2 * id] = hi;
+        keys[2 * id + 1] = lo;
+        table[slot] = id + 1;
+        // zaplnění nejvýš 1/2
+        if (2 * size > table.length) rehash();
+        return id;
+    }
+
+    String name(int id) {
+        byte[] b = new byte[MAX_LENGTH];
+        int n = 0;
+        for (int i = 0; i < MAX_LENGTH; i++) {
+            long word = keys[2 * id + (i < 8 ? 0 : 1)];
+            byte c = (byte) (word >>> (8 * (i % 8)));
+            if (c == 0) break;
+            b[n++] = c;
+        }
+        return new String(b, 0, n, StandardCharsets.US_ASCII);
+    }
+
+    private void rehash() {
+        table = new int[Math.max(2048, Integer.highestOneBit(Math.max(1, size)) * 4)];
+        mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(keys[2 * id], keys[2 * id + 1]) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+    }
+
+    private static long pack(byte[] b, int from) {
+        long v = 0;
+        for (int i = 0; i < 8 && from + i < b.length; i++) v |= (long) (b[from + i] & 0xFF) << (8 * i);
+        return v;
+    }
+
+    private static byte upper(byte c) {
+        return c >= 'a' && c <= 'z' ? (byte) (c - 32) : c;
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29) ^ (h >>> 47));
+    }
+}
@@ -0,0 +1,67 @@
+package cz.ok1xoe.cqww;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Callsign -> log URI index of one year page.
+ * <p>
+ * Same rule as the regex {@code (?i)^CALL([._-].*)?\.log$}: a file {@code OK1K_M2.log} is indexed under
+ * {@code OK1K_M2} and {@code OK1K}. If more files match one callsign the shortest file name wins
+ * (first one in page order on a tie).
+ */
+final class CallIndex {
+
+    private record Best(URI uri, int nameLength) {
+    }
+
+    private final Map<String, Best> index;
+
+    private CallIndex(Map<String, Best> index) {
+        this.index = index;
+    }
+
+    static CallIndex build(Collection<URI> links) {
+        Map<String, Best> index = new HashMap<>(links.size() * 2);
+        for (URI uri : links) {
+            String fileName = Path.of(uri.getPath()).getFileName().toString();
+            int len = fileName.length();
+            if (len <= 4 || !fileName.regionMatches(true, len - 4, ".log", 0, 4)) continue;
+
+            String stem = fileName.substring(0, len - 4).toUpperCase(Locale.ROOT);
+            Best candidate = new Best(uri, len);
+            put(index, stem, candidate);
+            for (int i = 1; i < stem.length(); i++) {
+                char c = stem.charAt(i);
+                if (c == '.' || c == '_' || c == '-') {
+                    put(index, stem.substring(0, i), candidate);
+                }
+            }
+        }
+        return new CallIndex(index);
+    }
+
+    private static void put(Map<String, Best> index, String key, Best candidate) {
+        Best current = index.get(key);
+        if (current == null || candidate.nameLength() < current.nameLength()) {
+            index.put(key, candidate);
+        }
+    }
+
+    /**
+     * @param callNorm upper-case callsign
+     * @return best matching log or null
+     */
+    URI lookup(String callNorm) {
+        Best best = index.get(callNorm);
+        return best != null ? best.uri() : null;
+    }
+
+    int size() {
+        return index.size();
+    }
+}
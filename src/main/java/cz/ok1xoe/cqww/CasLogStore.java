@@ -0,0 +1,177 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed store: one blob per SHA-256 digest in {@code <dir>/.cqww-blobs/ab/abcdef...},
+ * the log names in the directory are hard links to their blobs.
+ * <p>
+ * A log whose content is already stored costs no write, only a link; a name already holding the same digest
+ * is reported as unchanged. When a name moves to new content, the blob it pointed to is deleted once no other
+ * name links to it. Where hard links are not supported the blob is copied instead.
+ */
+@Slf4j
+final class CasLogStore implements LogStore {
+
+    static final String BLOB_DIR = ".cqww-blobs";
+    private static final String INCOMING_DIR = "incoming";
+
+    private final Path dir;
+    private final Path blobs;
+    private final Path incoming;
+    private final SyncManifest manifest;
+    private final AtomicBoolean linksSupported = new AtomicBoolean(true);
+    private final AtomicInteger newBlobs = new AtomicInteger();
+    private final AtomicInteger deduplicated = new AtomicInteger();
+    private final AtomicInteger removedBlobs = new AtomicInteger();
+    // vytvoření odkazu na blob a smazání nepoužívaného blobu se nesmí prolnout
+    private final ReentrantLock blobLock = new ReentrantLock();
+
+    CasLogStore(Path dir, SyncManifest manifest) throws IOException {
+        this.dir = dir;
+        this.blobs = dir.resolve(BLOB_DIR);
+        this.incoming = blobs.resolve(INCOMING_DIR);
+        this.manifest = manifest;
+        Files.createDirectories(incoming);
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return manifest != null ? manifest.exists(name) : Files.exists(dir.resolve(name));
+    }
+
+    @Override
+    public Path target(String name) {
+        return incoming.resolve(name);
+    }
+
+    @Override
+    public Path stored(String name) {
+        return dir.resolve(name);
+    }
+
+    @Override
+    public boolean commit(String name, Path file, String sha256) throws IOException {
+        Path blob = blob(sha256);
+        Path link = dir.resolve(name);
+        String previous = digest(name, link);
+        if (sha256.equals(previous)) {
+            Files.deleteIfExists(file);
+            return false;
+        }
+
+        blobLock.lock();
+        try {
+            store(name, file, blob, link);
+        } finally {
+            blobLock.unlock();
+        }
+        if (previous != null) release(blob(previous));
+        return true;
+    }
+
+    private void store(String name, Path file, Path blob, Path link) throws IOException {
+        if (Files.exists(blob)) {
+            Files.deleteIfExists(file);
+            deduplicated.incrementAndGet();
+        } else {
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.move(file, blob, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // stejný obsah uložilo souběžně jiné vlákno
+                Files.deleteIfExists(file);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, blob, StandardCopyOption.REPLACE_EXISTING);
+            }
+            newBlobs.incrementAndGet();
+        }
+
+        // nový odkaz vedle cíle a přejmenování -> existující jméno se nahradí atomicky
+        Path tmp = dir.resolve("." + name + "." + Thread.currentThread().threadId() + ".lnk");
+        Files.deleteIfExists(tmp);
+        if (!linksSupported.get() || !tryLink(tmp, blob)) {
+            Files.copy(blob, tmp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try {
+            Files.move(tmp, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, link, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Digest of the content {@code name} holds now (from the manifest, else computed), null when it does not exist.
+     */
+    private String digest(String name, Path link) throws IOException {
+        if (!Files.exists(link)) return null;
+        SyncManifest.Entry entry = manifest != null ? manifest.get(name) : null;
+        if (entry != null && entry.sha256() != null) return entry.sha256();
+        try {
+            return HttpDownloadUtils.sha256(link);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes a blob no name links to any more (only the blob itself is left, or names are copies).
+     */
+    private void release(Path blob) {
+        blobLock.lock();
+        try {
+            if (linksSupported.get() && (int) Files.getAttribute(blob, "unix:nlink") > 1) return;
+            if (Files.deleteIfExists(blob)) removedBlobs.incrementAndGet();
+        } catch (NoSuchFileException e) {
+            // už smazaný
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            log.debug("Cannot check links of {} ({}), blob kept", blob, e.toString());
+        } finally {
+            blobLock.unlock();
+        }
+    }
+
+    private Path blob(String sha256) {
+        return blobs.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private boolean tryLink(Path link, Path blob) throws IOException {
+        try {
+            Files.createLink(link, blob);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            if (linksSupported.getAndSet(false)) {
+                log.warn("Hard links not supported in {} ({}), storing copies.", dir, e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (newBlobs.get() > 0 || deduplicated.get() > 0 || removedBlobs.get() > 0) {
+            log.info("Blob store {} | {} new blobs, {} deduplicated, {} unreferenced removed", blobs, newBlobs.get(),
+                    deduplicated.get(), removedBlobs.get());
+        }
+        try {
+            Files.deleteIfExists(incoming);
+        } catch (DirectoryNotEmptyException e) {
+            // nedokončené .part soubory zůstávají pro navázání
+        }
+    }
+}
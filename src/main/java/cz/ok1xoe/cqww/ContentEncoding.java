@@ -0,0 +1,321 @@
+package cz.ok1xoe.cqww;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Content-Encoding of response bodies: {@code gzip} and {@code deflate} are requested and decoded while
+ * streaming, so the stored file and its checksum are always the identity content.
+ * <p>
+ * {@link java.net.http.HttpClient} neither sends {@code Accept-Encoding} nor decodes bodies by itself.
+ */
+final class ContentEncoding {
+
+    static final String ACCEPT = "gzip, deflate";
+    private static final int BUFFER = 16 * 1024;
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Encoding of the response, null for identity (no header or {@code identity}).
+     */
+    static String of(HttpHeaders headers) {
+        String v = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        return v.isEmpty() || v.equals("identity") ? null : v;
+    }
+
+    /**
+     * Decoding stream over {@code in}; {@code in} itself is returned for identity.
+     *
+     * @throws IOException for an encoding that was not requested (e.g. br)
+     */
+    static InputStream decode(InputStream in, String encoding, URI uri) throws IOException {
+        if (encoding == null) return in;
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(in, BUFFER);
+            case "deflate" -> inflate(in);
+            default -> {
+                in.close();
+                throw new IOException("Unsupported Content-Encoding '" + encoding + "' for " + uri);
+            }
+        };
+    }
+
+    /**
+     * HTTP "deflate" should be zlib-wrapped, some servers send raw deflate - decided by the zlib header.
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+        PushbackInputStream p = new PushbackInputStream(in, 2);
+        int b0 = p.read();
+        int b1 = b0 >= 0 ? p.read() : -1;
+        if (b1 >= 0) p.unread(b1);
+        if (b0 >= 0) p.unread(b0);
+        boolean zlib = b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+        Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(p, inflater, BUFFER) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // vlastní Inflater InflaterInputStream sám neuvolní
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Push decoder over wire buffers for {@link FileBodySubscriber}, null for identity.
+     *
+     * @throws IOException for an encoding that was not requested (e.g. br)
+     */
+    static Decoder decoder(String encoding, URI uri) throws IOException {
+        if (encoding == null) return null;
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> new GzipDecoder(uri);
+            case "deflate" -> new DeflateDecoder(uri);
+            default -> throw new IOException("Unsupported Content-Encoding '" + encoding + "' for " + uri);
+        };
+    }
+
+    /**
+     * Target of the decoded bytes.
+     */
+    interface Sink {
+        /**
+         * Buffer with space remaining to inflate into.
+         */
+        ByteBuffer writable() throws IOException;
+    }
+
+    /**
+     * Decodes the body buffer by buffer as it arrives; the output goes straight into the sink's buffers,
+     * no intermediate stream or heap copy.
+     */
+    abstract static class Decoder implements AutoCloseable {
+        final URI uri;
+        Inflater inflater;
+
+        private Decoder(URI uri) {
+            this.uri = uri;
+        }
+
+        /**
+         * Decodes {@code in}; bytes after the end of the encoded stream are ignored.
+         */
+        abstract void decode(ByteBuffer in, Sink out) throws IOException;
+
+        /**
+         * End of the body; throws when the encoded stream is truncated.
+         */
+        abstract void finish() throws IOException;
+
+        /**
+         * Inflates until the input is used up or the deflate stream ends.
+         */
+        final void inflate(ByteBuffer in, Sink out) throws IOException {
+            inflater.setInput(in);
+            try {
+                while (!inflater.finished()) {
+                    ByteBuffer b = out.writable();
+                    int from = b.position();
+                    int n = inflater.inflate(b);
+                    if (n > 0) {
+                        inflated(b, from);
+                    } else if (inflater.needsInput()) {
+                        break;
+                    } else if (inflater.needsDictionary()) {
+                        throw new ZipException("Preset dictionary not supported for " + uri);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt " + this + " body of " + uri + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Called for the bytes inflated into {@code b} from {@code from} up to its position.
+         */
+        void inflated(ByteBuffer b, int from) {
+        }
+
+        @Override
+        public void close() {
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    /**
+     * RFC 1952: header (with optional extra, name, comment and header CRC), deflate data, CRC32 + ISIZE trailer.
+     * Several members follow each other like in {@link GZIPInputStream}; trailing garbage is ignored.
+     */
+    private static final class GzipDecoder extends Decoder {
+        private static final int HEADER = 0, EXTRA_LEN = 1, EXTRA = 2, NAME = 3, COMMENT = 4, HCRC = 5, BODY = 6,
+                TRAILER = 7, DONE = 8;
+        private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+        private final CRC32 crc = new CRC32();
+        private final byte[] acc = new byte[10];
+        private int accLen;
+        private int state = HEADER;
+        private int flags;
+        private int skip;
+        private int members;
+
+        private GzipDecoder(URI uri) {
+            super(uri);
+            inflater = new Inflater(true);
+        }
+
+        @Override
+        void decode(ByteBuffer in, Sink out) throws IOException {
+            while (in.hasRemaining() && state != DONE) {
+                switch (state) {
+                    case HEADER -> {
+                        if (!fill(in, 10)) return;
+                        if ((acc[0] & 0xFF) != 0x1F || (acc[1] & 0xFF) != 0x8B || acc[2] != 8) {
+                            if (members == 0) throw new ZipException("Not in GZIP format: " + uri);
+                            state = DONE;
+                            continue;
+                        }
+                        flags = acc[3];
+                        state = after(HEADER);
+                    }
+                    case EXTRA_LEN -> {
+                        if (!fill(in, 2)) return;
+                        skip = (acc[0] & 0xFF) | (acc[1] & 0xFF) << 8;
+                        state = skip > 0 ? EXTRA : after(EXTRA);
+                    }
+                    case EXTRA -> {
+                        int n = Math.min(skip, in.remaining());
+                        in.position(in.position() + n);
+                        skip -= n;
+                        if (skip == 0) state = after(EXTRA);
+                    }
+                    case NAME, COMMENT -> {
+                        if (in.get() == 0) state = after(state);
+                    }
+                    case HCRC -> {
+                        if (fill(in, 2)) state = after(HCRC);
+                    }
+                    case BODY -> {
+                        inflate(in, out);
+                        if (inflater.finished()) state = TRAILER;
+                    }
+                    case TRAILER -> {
+                        if (!fill(in, 8)) return;
+                        if (le32(0) != crc.getValue()) throw new ZipException("Corrupt GZIP trailer (CRC) for " + uri);
+                        if (le32(4) != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+                            throw new ZipException("Corrupt GZIP trailer (size) for " + uri);
+                        }
+                        members++;
+                        state = HEADER;
+                    }
+                    default -> throw new IllegalStateException();
+                }
+            }
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (state != DONE && (state != HEADER || members == 0)) {
+                throw new EOFException("Unexpected end of GZIP stream for " + uri);
+            }
+        }
+
+        @Override
+        void inflated(ByteBuffer b, int from) {
+            int end = b.position();
+            int limit = b.limit();
+            b.position(from).limit(end);
+            crc.update(b);
+            b.limit(limit);
+        }
+
+        /**
+         * Next state after {@code s} according to the header flags; starts the body when the header is done.
+         */
+        private int after(int s) {
+            if (s < EXTRA_LEN && (flags & FEXTRA) != 0) return EXTRA_LEN;
+            if (s < NAME && (flags & FNAME) != 0) return NAME;
+            if (s < COMMENT && (flags & FCOMMENT) != 0) return COMMENT;
+            if (s < HCRC && (flags & FHCRC) != 0) return HCRC;
+            inflater.reset();
+            crc.reset();
+            return BODY;
+        }
+
+        /**
+         * Collects {@code n} bytes into {@code acc} across buffer boundaries.
+         */
+        private boolean fill(ByteBuffer in, int n) {
+            int k = Math.min(n - accLen, in.remaining());
+            in.get(acc, accLen, k);
+            accLen += k;
+            if (accLen < n) return false;
+            accLen = 0;
+            return true;
+        }
+
+        private long le32(int off) {
+            return (acc[off] & 0xFFL) | (acc[off + 1] & 0xFFL) << 8 | (acc[off + 2] & 0xFFL) << 16
+                    | (acc[off + 3] & 0xFFL) << 24;
+        }
+
+        @Override
+        public String toString() {
+            return "gzip";
+        }
+    }
+
+    /**
+     * zlib or raw deflate, decided by the first two bytes like {@link #decode(InputStream, String, URI)}.
+     */
+    private static final class DeflateDecoder extends Decoder {
+        private final byte[] head = new byte[2];
+        private int headLen;
+
+        private DeflateDecoder(URI uri) {
+            super(uri);
+        }
+
+        @Override
+        void decode(ByteBuffer in, Sink out) throws IOException {
+            if (inflater == null) {
+                while (headLen < 2 && in.hasRemaining()) head[headLen++] = in.get();
+                if (headLen < 2) return;
+                int b0 = head[0] & 0xFF;
+                int b1 = head[1] & 0xFF;
+                inflater = new Inflater(!((b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0));
+                inflate(ByteBuffer.wrap(head), out);
+            }
+            if (!inflater.finished()) inflate(in, out);
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (inflater == null || !inflater.finished()) {
+                throw new EOFException("Unexpected end of deflate stream for " + uri);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "deflate";
+        }
+    }
+}
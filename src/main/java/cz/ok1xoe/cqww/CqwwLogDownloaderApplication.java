@@ -1,26 +1,33 @@
 package cz.ok1xoe.cqww;
 
+import ch.qos.logback.classic.LoggerContext;
 import lombok.extern.slf4j.Slf4j;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.DefaultApplicationArguments;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.SpringApplication;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.net.http.HttpClient;
 import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -28,16 +35,18 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.ZipException;
 
 @SpringBootApplication
 @Slf4j
@@ -45,12 +54,39 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
 
     private static final String DEFAULT_URL = "https://cqww.com/publiclogs/2025ph/";
     private static final String INDEX_URL = "https://cqww.com/publiclogs/";
-    private static final Pattern YEAR_PATTERN = Pattern.compile("(\\d{4})(ph|cw|rtty)", Pattern.CASE_INSENSITIVE);
+    private static final int TARGETED_FAN_OUT = 8;
+    private static final Duration DEFAULT_CACHE_TTL = Duration.ofHours(1);
+    private static final Duration ARCHIVE_CACHE_TTL = Duration.ofDays(30);
+    private static final Duration DEFAULT_METRICS_INTERVAL = Duration.ofSeconds(30);
+    private static final Duration PROGRESS_REFRESH = Duration.ofMillis(500);
+    private static final Duration DEFAULT_WATCH_INTERVAL = Duration.ofMinutes(5);
+    private static final Duration DEFAULT_WATCH_RESYNC = Duration.ofHours(24);
+    private static final double WATCH_JITTER = 0.2;
+    static final Pattern YEAR_PATTERN = Pattern.compile("(\\d{4})(ph|cw|rtty)", Pattern.CASE_INSENSITIVE);
+
+    private ListingCache listingCache = ListingCache.disabled();
+    private Duration cacheTtl = DEFAULT_CACHE_TTL;
+    private Duration archiveCacheTtl = ARCHIVE_CACHE_TTL;
+    private String storeKind = "files";
+    private String indexUrl = INDEX_URL;
+    private Shard shard;
 
     public static void main(String[] args) {
         SpringApplication.run(CqwwLogDownloaderApplication.class, args);
     }
 
+    /**
+     * Runs the downloader without an application context (see {@link Launcher}).
+     */
+    static void runFast(String[] args) {
+        try {
+            new CqwwLogDownloaderApplication().run(new DefaultApplicationArguments(args));
+        } finally {
+            // bez Springu nikdo nezastaví Logback -> vyprázdnit asynchronní appendery
+            if (LoggerFactory.getILoggerFactory() instanceof LoggerContext context) context.stop();
+        }
+    }
+
     @Override
     public void run(ApplicationArguments args) {
         // Targeted režimy podle kombinací:
@@ -58,12 +94,169 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
         // B) --call + --year -> stáhne pro daný rok CW i SSB
         // C) --call + --mode -> stáhne pro daný mód všechny roky
         // D) --call + --year + --mode -> stáhne jen jeden konkrétní log
+        // Místo --call lze použít --calls=soubor (nebo "-" pro stdin) = dávka značek.
         // Ostatní kombinace jsou zakázané.
-        if (args.containsOption("call") || args.containsOption("year") || args.containsOption("mode")) {
-            runTargetedDownload(args);
+        configureListingCache(args);
+
+        storeKind = getSingleOption(args, "store").orElse("files").trim().toLowerCase(Locale.ROOT);
+        if (!LogStore.isValidKind(storeKind)) {
+            log.error("Invalid --store value: {}. Allowed values: files, zip, cas", storeKind);
             return;
         }
 
+        if (!configureHttpClients(args)) return;
+        if (!configureRateLimits(args)) return;
+        if (!configureShard(args)) return;
+
+        String progressRaw = getSingleOption(args, "progress").orElse("bar").trim().toUpperCase(Locale.ROOT);
+        ProgressReporter.Mode progressMode;
+        try {
+            progressMode = ProgressReporter.Mode.valueOf(progressRaw);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid --progress value: {}. Allowed values: bar, files, off", progressRaw.toLowerCase(Locale.ROOT));
+            return;
+        }
+
+        // --query jen čte index, nic nestahuje
+        if (args.containsOption("query")) {
+            runQuery(args);
+            return;
+        }
+        // --mergeShards jen slučuje výsledky shardů v --out
+        if (args.containsOption("mergeShards")) {
+            runShardMerge(args);
+            return;
+        }
+
+        MetricsExporter metrics = getSingleOption(args, "metricsFile")
+                .map(f -> new MetricsExporter(DownloadMetrics.get(), Path.of(f),
+                        getSingleOption(args, "metricsInterval").map(v -> parseDurationSafe(v, DEFAULT_METRICS_INTERVAL))
+                                .orElse(DEFAULT_METRICS_INTERVAL)))
+                .orElse(null);
+        // --analyze / --index samotné jen zpracují stažené logy, s --url / --call až po stažení
+        boolean targeted = args.containsOption("call") || args.containsOption("calls")
+                || args.containsOption("year") || args.containsOption("mode");
+        boolean analyze = args.containsOption("analyze");
+        boolean index = args.containsOption("index");
+        boolean download = !(analyze || index) || targeted || args.containsOption("url");
+
+        ProgressReporter progress = download ? ProgressReporter.start(progressMode, PROGRESS_REFRESH) : ProgressReporter.get();
+        try {
+            if (download && targeted) {
+                runTargetedDownload(args);
+            } else if (download) {
+                runUrlDownload(args);
+            }
+            if (analyze || index) progress.close();
+            if (analyze) runAnalysis(args);
+            if (index) runIndex(args);
+        } finally {
+            progress.close();
+            if (metrics != null) metrics.close();
+        }
+    }
+
+    /**
+     * Cabrillo statistics of the downloaded tree (--out) written to --analyzeOut (CSV pair, or JSON for *.json).
+     */
+    private void runAnalysis(ApplicationArguments args) {
+        Path root = getSingleOption(args, "out").map(Path::of).orElse(Path.of(System.getProperty("user.dir")));
+        Path target = getSingleOption(args, "analyzeOut").map(Path::of).orElse(root.resolve("cqww-stats"));
+        try {
+            CabrilloAnalyzer.Report report = CabrilloAnalyzer.analyze(root);
+            List<Path> written = new ArrayList<>();
+            if (target.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                try (java.io.Writer w = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+                    CabrilloAnalyzer.writeJson(report, w);
+                }
+                written.add(target);
+            } else {
+                Path logsCsv = target.resolveSibling(target.getFileName() + "-logs.csv");
+                Path categoriesCsv = target.resolveSibling(target.getFileName() + "-categories.csv");
+                try (java.io.Writer w = Files.newBufferedWriter(logsCsv, StandardCharsets.UTF_8)) {
+                    CabrilloAnalyzer.writeLogsCsv(report, w);
+                }
+                try (java.io.Writer w = Files.newBufferedWriter(categoriesCsv, StandardCharsets.UTF_8)) {
+                    CabrilloAnalyzer.writeCategoriesCsv(report, w);
+                }
+                written.add(logsCsv);
+                written.add(categoriesCsv);
+            }
+            for (CabrilloAnalyzer.CategoryStats c : report.categories()) {
+                log.info("STATS | {} | logs: {} qsos: {} bad lines: {}", c.category(), c.logs(), c.qsos(), c.badLines());
+            }
+            log.info("Statistics written to {}", written);
+        } catch (IOException | java.io.UncheckedIOException e) {
+            log.error("Analysis of {} failed: {}", root, e.getMessage());
+        }
+    }
+
+    private Path indexDir(ApplicationArguments args, Path root) {
+        return getSingleOption(args, "indexDir").map(Path::of).orElse(root.resolve(QsoIndex.DIR_NAME));
+    }
+
+    /**
+     * Updates the QSO index of the downloaded tree; only categories whose logs changed are re-indexed.
+     */
+    private void runIndex(ApplicationArguments args) {
+        Path root = getSingleOption(args, "out").map(Path::of).orElse(Path.of(System.getProperty("user.dir")));
+        Path dir = indexDir(args, root);
+        long start = System.nanoTime();
+        try {
+            QsoIndex.UpdateResult r = QsoIndex.update(root, dir);
+            log.info("Index {} updated in {} ms | categories: {} (re-indexed: {}, removed: {}) qsos: {} callsigns: {}",
+                    dir, (System.nanoTime() - start) / 1_000_000, r.segments(), r.rebuilt(), r.removed(), r.rows(), r.calls());
+        } catch (IOException | java.io.UncheckedIOException e) {
+            log.error("Indexing of {} failed: {}", root, e.getMessage());
+        }
+    }
+
+    /**
+     * Prints every indexed QSO of the given callsigns (--query=CALL[,CALL...]) to stdout.
+     */
+    private void runQuery(ApplicationArguments args) {
+        Path root = getSingleOption(args, "out").map(Path::of).orElse(Path.of(System.getProperty("user.dir")));
+        Path dir = indexDir(args, root);
+        List<String> calls = args.getOptionValues("query").stream()
+                .flatMap(v -> java.util.Arrays.stream(v.split(",")))
+                .filter(c -> !c.isBlank())
+                .toList();
+        long start = System.nanoTime();
+        try {
+            Map<String, List<QsoIndex.Qso>> result = QsoIndex.query(dir, calls);
+            long micros = (System.nanoTime() - start) / 1_000;
+            result.forEach((call, qsos) -> {
+                for (QsoIndex.Qso q : qsos) {
+                    System.out.printf(Locale.ROOT, "%-20s %-16s %s %5s %-5s %-12s %s%n", q.category(), q.log(),
+                            QsoIndex.formatMinute(q.minute()), q.band(), q.mode(), q.call(), q.worked());
+                }
+                log.info("QUERY | {} | {} QSOs", call, qsos.size());
+            });
+            log.info("Query of {} callsign(s) answered in {} ms", calls.size(), String.format(Locale.ROOT, "%.1f", micros / 1000.0));
+        } catch (IOException | java.io.UncheckedIOException e) {
+            log.error("Query failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Merges the shard results (--shard) of the tree in --out into the category manifests and reports gaps.
+     */
+    private void runShardMerge(ApplicationArguments args) {
+        Path root = getSingleOption(args, "out").map(Path::of).orElse(Path.of(System.getProperty("user.dir")));
+        long start = System.nanoTime();
+        try {
+            Shard.MergeResult r = Shard.merge(root);
+            log.info("MERGE | {} categories | logs: {} delivered: {} gaps: {} ({} ms)", r.categories(), r.listed(),
+                    r.delivered(), r.gaps(), (System.nanoTime() - start) / 1_000_000);
+            if (r.gaps() > 0) {
+                log.warn("{} logs are missing, re-run the reporting shards (or copy their files) and merge again.", r.gaps());
+            }
+        } catch (IOException e) {
+            log.error("Cannot merge shard results: {}", root, e);
+        }
+    }
+
+    private void runUrlDownload(ApplicationArguments args) {
         // Původní funkcionalita (beze změn): stahování podle URL / indexu
         final String url = args.containsOption("url") ? args.getOptionValues("url").getFirst() : DEFAULT_URL;
         Path outDir = args.containsOption("out")
@@ -73,21 +266,30 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
                 ? Math.max(1, parseIntSafe(args.getOptionValues("maxConcurrent").get(0), 100))
                 : 100;
 
+        final boolean adaptive = !args.containsOption("adaptive")
+                || !"false".equalsIgnoreCase(args.getOptionValues("adaptive").get(0));
+
         final int maxRetries = args.containsOption("retries")
                 ? Math.max(0, parseIntSafe(args.getOptionValues("retries").get(0), 3))
                 : 3;
 
+        // --watch: první průchod stáhne jen chybějící logy, změny zachytí periodický resync
+        final boolean watch = args.containsOption("watch");
         final String overwriteMode = args.containsOption("overwrite")
                 ? args.getOptionValues("overwrite").get(0).toLowerCase(Locale.ROOT)
-                : "replace";
+                : watch ? "skip" : "replace";
 
-        if (!overwriteMode.equals("skip") && !overwriteMode.equals("new") && !overwriteMode.equals("replace")) {
-            log.error("Invalid --overwrite value: {}. Allowed values: skip, new, replace", overwriteMode);
+        if (!isValidOverwriteMode(overwriteMode)) {
+            log.error("Invalid --overwrite value: {}. Allowed values: skip, new, replace, sync, verify, verify-local", overwriteMode);
             return;
         }
 
-        log.info("Start | url={} out={} maxConcurrent={} retries={} overwrite={}",
-                url, outDir.toAbsolutePath(), maxConcurrent, maxRetries, overwriteMode);
+        log.info("Start | url={} out={} maxConcurrent={} adaptive={} retries={} overwrite={} store={}{}",
+                url, outDir.toAbsolutePath(), maxConcurrent, adaptive, maxRetries, overwriteMode, storeKind,
+                shard != null ? " shard=" + shard : "");
+
+        // Limiter je sdílený napříč kategoriemi, naučený limit se tak přenáší dál
+        final AdaptiveLimiter limiter = adaptive ? AdaptiveLimiter.adaptive(maxConcurrent) : AdaptiveLimiter.fixed(maxConcurrent);
 
         try {
             URI test = new URI(url);
@@ -124,26 +326,33 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
         // Detect if it's an index page or a specific year page
         boolean isIndexPage = url.trim().endsWith("/publiclogs/") || url.trim().equals(INDEX_URL.replaceAll("/$", ""));
 
-        if (isIndexPage) {
+        if (watch) {
+            Duration interval = getSingleOption(args, "watch")
+                    .map(v -> parseDurationSafe(v, DEFAULT_WATCH_INTERVAL)).orElse(DEFAULT_WATCH_INTERVAL);
+            Duration resync = getSingleOption(args, "watchResync")
+                    .map(v -> parseDurationSafe(v, DEFAULT_WATCH_RESYNC)).orElse(DEFAULT_WATCH_RESYNC);
+            new Watch(url, isIndexPage, outDir, maxRetries, overwriteMode, interval, resync).run(limiter);
+        } else if (isIndexPage) {
             log.info("Index page detected - will process all years");
-            processIndexPage(url, outDir, maxConcurrent, maxRetries, overwriteMode);
+            processIndexPage(url, outDir, limiter, maxRetries, overwriteMode);
         } else {
             log.info("Single year page detected - downloading from one source");
-            processSingleYearPage(url, outDir, maxConcurrent, maxRetries, overwriteMode);
+            processSingleYearPage(url, outDir, limiter, maxRetries, overwriteMode);
         }
     }
 
     private void runTargetedDownload(ApplicationArguments args) {
         boolean hasCall = args.containsOption("call");
+        boolean hasCalls = args.containsOption("calls");
         boolean hasYear = args.containsOption("year");
         boolean hasMode = args.containsOption("mode");
 
-        // Povolené kombinace:
+        // Povolené kombinace (call lze nahradit calls):
         // call
         // call+year
         // call+mode
         // call+year+mode
-        boolean allowed = hasCall && (
+        boolean allowed = (hasCall ^ hasCalls) && (
                 (!hasYear && !hasMode) ||
                         (hasYear && !hasMode) ||
                         (!hasYear && hasMode) ||
@@ -156,6 +365,7 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
             log.error("  --call + --year");
             log.error("  --call + --mode");
             log.error("  --call + --year + --mode");
+            log.error("  (--calls=<file> or --calls=- instead of --call for a batch of callsigns)");
             return;
         }
 
@@ -163,11 +373,30 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
         String year = getSingleOption(args, "year").orElse("").trim();
         String modeRaw = getSingleOption(args, "mode").orElse("").trim();
 
-        if (call.isBlank()) {
-            log.error("Parameter --call is required.");
-            return;
+        final List<String> batchCalls;
+        final String callNorm;
+        if (hasCalls) {
+            String source = getSingleOption(args, "calls").orElse("").trim();
+            try {
+                batchCalls = readCallList(source);
+            } catch (IOException e) {
+                log.error("Cannot read callsign list: {}", source, e);
+                return;
+            }
+            if (batchCalls.isEmpty()) {
+                log.error("Callsign list is empty: {}", source);
+                return;
+            }
+            callNorm = null;
+            log.info("Batch mode | {} callsigns from {}", batchCalls.size(), source.equals("-") ? "stdin" : source);
+        } else {
+            if (call.isBlank()) {
+                log.error("Parameter --call is required.");
+                return;
+            }
+            batchCalls = null;
+            callNorm = call.toUpperCase(Locale.ROOT);
         }
-        String callNorm = call.toUpperCase(Locale.ROOT);
 
         if (hasYear && !year.matches("\\d{4}")) {
             log.error("Invalid --year value: {} (expected 4 digits, e.g. 2020)", year);
@@ -186,6 +415,9 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
             selectedMode = null;
         }
 
+        // --url v targeted režimu = jiný index (mirror, lokální testovací server)
+        indexUrl = getSingleOption(args, "url").map(String::trim).map(this::ensureTrailingSlash).orElse(INDEX_URL);
+
         Path outDir = args.containsOption("out")
                 ? Path.of(args.getOptionValues("out").get(0))
                 : Path.of(System.getProperty("user.dir"));
@@ -198,8 +430,8 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
                 ? args.getOptionValues("overwrite").get(0).toLowerCase(Locale.ROOT)
                 : "replace";
 
-        if (!overwriteMode.equals("skip") && !overwriteMode.equals("new") && !overwriteMode.equals("replace")) {
-            log.error("Invalid --overwrite value: {}. Allowed values: skip, new, replace", overwriteMode);
+        if (!isValidOverwriteMode(overwriteMode)) {
+            log.error("Invalid --overwrite value: {}. Allowed values: skip, new, replace, sync, verify, verify-local", overwriteMode);
             return;
         }
 
@@ -224,36 +456,23 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
             return;
         }
 
-        AtomicLong totalBytes = new AtomicLong(0);
-        AtomicInteger ok = new AtomicInteger(0);
-        AtomicInteger failed = new AtomicInteger(0);
-        AtomicInteger skipped = new AtomicInteger(0);
+        final int fanOut = args.containsOption("maxConcurrent")
+                ? Math.max(1, parseIntSafe(args.getOptionValues("maxConcurrent").get(0), TARGETED_FAN_OUT))
+                : TARGETED_FAN_OUT;
 
-        // D) call + year + mode => konkrétní log
-        if (hasYear && hasMode) {
-            String yearUrl = buildYearUrl(year, selectedMode);
-            downloadOne(callNorm, yearUrl, year, selectedMode, outDir, maxRetries, overwriteMode, totalBytes, ok, failed, skipped);
+        List<Lookup> lookups = new ArrayList<>();
 
-            log.info("DONE | successful: {} skipped: {} failed: {} total: {}B",
-                    ok.get(), skipped.get(), failed.get(), totalBytes.get());
-            return;
-        }
-
-        // B) call + year => CW i SSB pro rok
-        if (hasYear) {
+        if (hasYear && hasMode) {
+            // D) call + year + mode => konkrétní log
+            lookups.add(new Lookup(year, selectedMode, buildYearUrl(year, selectedMode)));
+        } else if (hasYear) {
+            // B) call + year => CW i SSB pro rok
             for (Mode m : List.of(Mode.CW, Mode.SSB)) {
-                String yearUrl = buildYearUrl(year, m);
-                downloadOne(callNorm, yearUrl, year, m, outDir, maxRetries, overwriteMode, totalBytes, ok, failed, skipped);
+                lookups.add(new Lookup(year, m, buildYearUrl(year, m)));
             }
-
-            log.info("DONE | successful: {} skipped: {} failed: {} total: {}B",
-                    ok.get(), skipped.get(), failed.get(), totalBytes.get());
-            return;
-        }
-
-        // C) call + mode => všechny roky pro mód
-        if (hasMode) {
-            List<YearInfo> all = discoverYearLinksFromIndex(INDEX_URL);
+        } else if (hasMode) {
+            // C) call + mode => všechny roky pro mód
+            List<YearInfo> all = discoverYearLinksFromIndex(indexUrl);
             List<YearInfo> filtered = all.stream()
                     .filter(i -> i.mode.equalsIgnoreCase(selectedMode.displayName))
                     .sorted(Comparator.comparing(i -> i.year))
@@ -265,38 +484,170 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
             }
 
             for (YearInfo info : filtered) {
-                downloadOne(callNorm, ensureTrailingSlash(info.url), info.year, selectedMode, outDir, maxRetries, overwriteMode, totalBytes, ok, failed, skipped);
+                lookups.add(new Lookup(info.year, selectedMode, ensureTrailingSlash(info.url)));
             }
+        } else {
+            // A) call => všechny roky a módy (dle indexu)
+            List<YearInfo> all = discoverYearLinksFromIndex(indexUrl);
+            List<YearInfo> sorted = all.stream()
+                    .sorted(Comparator.comparing((YearInfo i) -> i.year).thenComparing(i -> i.mode))
+                    .toList();
 
-            log.info("DONE | successful: {} skipped: {} failed: {} total: {}B",
-                    ok.get(), skipped.get(), failed.get(), totalBytes.get());
-            return;
+            if (sorted.isEmpty()) {
+                log.warn("No year categories found on index page: {}", indexUrl);
+                return;
+            }
+
+            for (YearInfo info : sorted) {
+                Mode m;
+                try {
+                    m = Mode.parse(info.mode); // "CW"/"SSB"/"RTTY"
+                } catch (IllegalArgumentException ex) {
+                    log.warn("Skipping unsupported mode from index: {}", info.mode);
+                    continue;
+                }
+                lookups.add(new Lookup(info.year, m, ensureTrailingSlash(info.url)));
+            }
         }
 
-        // A) call => všechny roky a módy (dle indexu)
-        List<YearInfo> all = discoverYearLinksFromIndex(INDEX_URL);
-        List<YearInfo> sorted = all.stream()
-                .sorted(Comparator.comparing((YearInfo i) -> i.year).thenComparing(i -> i.mode))
-                .toList();
+        DownloadStats stats = new DownloadStats();
+        SyncManifest manifest = SyncManifest.load(outDir);
+
+        try (LogStore store = LogStore.open(storeKind, outDir, manifest)) {
+            if (batchCalls != null) {
+                final int maxConcurrent = args.containsOption("maxConcurrent")
+                        ? Math.max(1, parseIntSafe(args.getOptionValues("maxConcurrent").get(0), 100))
+                        : 100;
+                final boolean adaptive = !args.containsOption("adaptive")
+                        || !"false".equalsIgnoreCase(args.getOptionValues("adaptive").get(0));
+                runBatch(lookups, batchCalls, store, maxRetries, overwriteMode, manifest, stats,
+                        Math.min(fanOut, TARGETED_FAN_OUT), maxConcurrent, adaptive);
+            } else {
+                runLookups(lookups, fanOut, stats, l ->
+                        downloadOne(callNorm, l.yearUrl(), l.year(), l.mode(), store, maxRetries, overwriteMode, manifest, stats));
+            }
+        } catch (IOException e) {
+            log.error("Log store error: {}", outDir, e);
+        }
 
-        if (sorted.isEmpty()) {
-            log.warn("No year categories found on index page: {}", INDEX_URL);
-            return;
+        manifest.save();
+        log.info("DONE | {}", stats.summary());
+    }
+
+    /**
+     * Batch mode: every year page is loaded once, indexed by callsign and all calls are resolved from the index.
+     * Matches are downloaded concurrently through the scheduler.
+     */
+    private void runBatch(List<Lookup> lookups, List<String> calls, LogStore store, int maxRetries, String overwriteMode,
+                          SyncManifest manifest, DownloadStats stats, int pageFanOut, int maxConcurrent,
+                          boolean adaptive) {
+        Set<String> found = ConcurrentHashMap.newKeySet();
+        AdaptiveLimiter limiter = adaptive ? AdaptiveLimiter.adaptive(maxConcurrent) : AdaptiveLimiter.fixed(maxConcurrent);
+
+        try (DownloadScheduler scheduler = new DownloadScheduler(limiter)) {
+            DownloadScheduler.Category downloads = scheduler.open("batch", () -> { });
+            runLookups(lookups, pageFanOut, stats, l -> {
+                CallIndex index;
+                try {
+                    index = CallIndex.build(fetchLogLinks(l.yearUrl()));
+                } catch (IOException e) {
+                    log.error("Cannot load/parse page: {}", l.yearUrl(), e);
+                    stats.failed.incrementAndGet();
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.error("Interrupted while loading page: {}", l.yearUrl());
+                    stats.failed.incrementAndGet();
+                    return;
+                }
+
+                int matches = 0;
+                for (String c : calls) {
+                    URI logUri = index.lookup(c);
+                    if (logUri == null) continue;
+                    matches++;
+                    found.add(c);
+                    String forcedFileName = buildForcedFileName(l.year(), l.mode(), c);
+                    downloads.submit(new DownloadTask(logUri, store, maxRetries, overwriteMode, forcedFileName,
+                            manifest, limiter, stats));
+                }
+                log.info("Searched | url={} matches={}/{}", l.yearUrl(), matches, calls.size());
+            });
+            downloads.close();
         }
 
-        for (YearInfo info : sorted) {
-            Mode m;
-            try {
-                m = Mode.parse(info.mode); // "CW"/"SSB"/"RTTY"
-            } catch (IllegalArgumentException ex) {
-                log.warn("Skipping unsupported mode from index: {}", info.mode);
-                continue;
+        List<String> missing = calls.stream().filter(c -> !found.contains(c)).toList();
+        if (!missing.isEmpty()) {
+            log.warn("Not found in any page ({}): {}", missing.size(), String.join(", ", missing));
+        }
+    }
+
+    /**
+     * Callsigns from a file (or stdin for "-"): separated by whitespace, commas or semicolons, '#' starts a comment.
+     */
+    private List<String> readCallList(String source) throws IOException {
+        List<String> lines = source.equals("-")
+                ? new java.io.BufferedReader(new java.io.InputStreamReader(System.in, StandardCharsets.UTF_8)).lines().toList()
+                : Files.readAllLines(Path.of(source), StandardCharsets.UTF_8);
+
+        Set<String> calls = new LinkedHashSet<>();
+        for (String line : lines) {
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            for (String token : line.split("[\\s,;]+")) {
+                if (!token.isBlank()) calls.add(token.trim().toUpperCase(Locale.ROOT));
             }
-            downloadOne(callNorm, ensureTrailingSlash(info.url), info.year, m, outDir, maxRetries, overwriteMode, totalBytes, ok, failed, skipped);
         }
+        return new ArrayList<>(calls);
+    }
 
-        log.info("DONE | successful: {} skipped: {} failed: {} total: {}B",
-                ok.get(), skipped.get(), failed.get(), totalBytes.get());
+    /**
+     * One year page to search in targeted mode.
+     */
+    private record Lookup(String year, Mode mode, String yearUrl) {
+    }
+
+    /**
+     * Runs the per-year lookups in parallel on virtual threads, at most {@code fanOut} at once.
+     * On interruption all pending lookups are cancelled.
+     */
+    private void runLookups(List<Lookup> lookups, int fanOut, DownloadStats stats, Consumer<Lookup> action) {
+        if (lookups.size() == 1) {
+            action.accept(lookups.getFirst());
+            return;
+        }
+
+        final Semaphore gate = new Semaphore(fanOut);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Lookup l : lookups) {
+                futures.add(executor.submit(() -> {
+                    gate.acquire();
+                    try {
+                        action.accept(l);
+                    } finally {
+                        gate.release();
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.error("Interrupted, cancelling remaining lookups.", e);
+                    futures.forEach(pending -> pending.cancel(true));
+                    break;
+                } catch (CancellationException e) {
+                    log.debug("Lookup cancelled.");
+                } catch (ExecutionException e) {
+                    log.error("Unexpected error during lookup.", e.getCause());
+                    stats.failed.incrementAndGet();
+                }
+            }
+        }
     }
 
     private void downloadOne(
@@ -304,13 +655,11 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
             String yearUrl,
             String year,
             Mode mode,
-            Path outDir,
+            LogStore store,
             int maxRetries,
             String overwriteMode,
-            AtomicLong totalBytes,
-            AtomicInteger ok,
-            AtomicInteger failed,
-            AtomicInteger skipped
+            SyncManifest manifest,
+            DownloadStats stats
     ) {
         log.info("Searching log | call={} url={}", callNorm, yearUrl);
 
@@ -319,7 +668,12 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
             logUri = findLogUriForCall(yearUrl, callNorm);
         } catch (IOException e) {
             log.error("Cannot load/parse page: {}", yearUrl, e);
-            failed.incrementAndGet();
+            stats.failed.incrementAndGet();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while loading page: {}", yearUrl);
+            stats.failed.incrementAndGet();
             return;
         }
 
@@ -331,10 +685,10 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
         String forcedFileName = buildForcedFileName(year, mode, callNorm);
 
         try {
-            new DownloadTask(logUri, outDir, maxRetries, overwriteMode, forcedFileName, totalBytes, ok, failed, skipped).call();
+            new DownloadTask(logUri, store, maxRetries, overwriteMode, forcedFileName, manifest, null, stats).call();
         } catch (Exception e) {
             log.error("Unexpected error during download: {}", logUri, e);
-            failed.incrementAndGet();
+            stats.failed.incrementAndGet();
         }
     }
 
@@ -345,7 +699,7 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
 
     private String buildYearUrl(String year, Mode mode) {
         // veřejné URL: {year}cw / {year}ph / (pokud existuje) {year}rtty
-        return INDEX_URL + year + mode.urlSuffix + "/";
+        return indexUrl + year + mode.urlSuffix + "/";
     }
 
     private String ensureTrailingSlash(String url) {
@@ -360,91 +714,74 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
         return Optional.ofNullable(values.get(0));
     }
 
-    private URI findLogUriForCall(String yearUrl, String callNorm) throws IOException {
-        final Document doc = Jsoup.connect(yearUrl)
-                .userAgent("CQWW-Log-Downloader/2.1 (+Java 21 Virtual Threads; SpringBoot)")
-                .timeout(20_000)
-                .get();
-
-        Elements links = doc.select("a[href]");
-        Pattern p = Pattern.compile("(?i)^" + Pattern.quote(callNorm) + "([._-].*)?\\.log$");
-
-        URI best = null;
-        int bestLen = Integer.MAX_VALUE;
-
-        for (Element a : links) {
-            String abs = a.attr("abs:href");
-            if (abs == null || abs.isBlank()) continue;
-            if (!abs.toLowerCase(Locale.ROOT).endsWith(".log")) continue;
-
-            URI uri;
-            try {
-                uri = new URI(abs);
-            } catch (URISyntaxException ex) {
-                continue;
-            }
-
-            String fileName = Path.of(uri.getPath()).getFileName().toString();
-            if (!p.matcher(fileName).matches()) continue;
-
-            // Pokud by existovalo víc variant, vezmeme "nejkratší" (typicky OK1K.LOG vs OK1K_foo.LOG)
-            if (fileName.length() < bestLen) {
-                best = uri;
-                bestLen = fileName.length();
-            }
-        }
-        return best;
+    private URI findLogUriForCall(String yearUrl, String callNorm) throws IOException, InterruptedException {
+        // Pokud by existovalo víc variant, vezmeme "nejkratší" (typicky OK1K.LOG vs OK1K_foo.LOG)
+        return CallIndex.build(fetchLogLinks(yearUrl)).lookup(callNorm);
     }
 
     private List<YearInfo> discoverYearLinksFromIndex(String indexUrl) {
-        final Document doc;
+        return discoverYearLinksFromIndex(indexUrl, cacheTtl);
+    }
+
+    private List<YearInfo> discoverYearLinksFromIndex(String indexUrl, Duration ttl) {
+        final List<String> links;
         try {
-            doc = Jsoup.connect(indexUrl)
-                    .userAgent("CQWW-Log-Downloader/2.1 (+Java 21 Virtual Threads; SpringBoot)")
-                    .timeout(20_000)
-                    .get();
+            links = listingCache.get(indexUrl, ttl, CqwwLogDownloaderApplication::extractYearLinks);
         } catch (IOException e) {
             log.error("IO error while loading index page: {}", e.getMessage(), e);
             return List.of();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while loading index page.", e);
+            return List.of();
+        } catch (Exception e) {
+            log.error("Error while parsing year links.", e);
+            return List.of();
         }
 
+        // Find all links to years (e.g. 2024ph, 2024cw, 2023ph, ...)
         Map<String, YearInfo> yearLinks = new LinkedHashMap<>();
-        try {
-            Elements links = doc.select("a[href]");
-            for (Element a : links) {
-                String href = a.attr("href");
-                if (href == null || href.isBlank()) continue;
-
-                Matcher m = YEAR_PATTERN.matcher(href);
-                if (m.find()) {
-                    String year = m.group(1);
-                    String modeSuffix = m.group(2).toLowerCase(Locale.ROOT);
-                    String fullUrl = a.attr("abs:href");
-
-                    String key = year + modeSuffix;
-                    if (!yearLinks.containsKey(key)) {
-                        YearInfo info = new YearInfo();
-                        info.year = year;
-                        info.mode = switch (modeSuffix) {
-                            case "ph" -> "SSB";
-                            case "cw" -> "CW";
-                            case "rtty" -> "RTTY";
-                            default -> modeSuffix.toUpperCase(Locale.ROOT);
-                        };
-                        info.url = fullUrl;
-                        info.dirName = year + "_CQWW" + info.mode + "_LOGS";
-                        yearLinks.put(key, info);
-                    }
-                }
+        for (String fullUrl : links) {
+            Matcher m = YEAR_PATTERN.matcher(fullUrl);
+            if (!m.find()) continue;
+
+            String year = m.group(1);
+            String modeSuffix = m.group(2).toLowerCase(Locale.ROOT);
+            String key = year + modeSuffix;
+            if (!yearLinks.containsKey(key)) {
+                YearInfo info = new YearInfo();
+                info.year = year;
+                info.mode = switch (modeSuffix) {
+                    case "ph" -> "SSB";
+                    case "cw" -> "CW";
+                    case "rtty" -> "RTTY";
+                    default -> modeSuffix.toUpperCase(Locale.ROOT);
+                };
+                info.url = fullUrl;
+                info.dirName = year + "_CQWW" + info.mode + "_LOGS";
+                yearLinks.put(key, info);
             }
-        } catch (Exception e) {
-            log.error("Error while parsing year links.", e);
-            return List.of();
         }
 
         return new ArrayList<>(yearLinks.values());
     }
 
+    /**
+     * Absolute URLs of year category links (href matching YEAR_PATTERN) on the index page.
+     */
+    static void extractYearLinks(InputStream body, Charset charset, String baseUrl, Consumer<String> sink)
+            throws IOException {
+        // bez charsetu v hlavičce ho Jsoup určí z <meta> / BOM
+        Document doc = Jsoup.parse(body, charset != null ? charset.name() : null, baseUrl);
+        for (Element a : doc.select("a[href]")) {
+            String href = a.attr("href");
+            if (href == null || href.isBlank()) continue;
+            if (!YEAR_PATTERN.matcher(href).find()) continue;
+            String abs = a.attr("abs:href");
+            if (!abs.isBlank()) sink.accept(abs);
+        }
+    }
+
     private enum Mode {
         CW("CW", "cw"),
         SSB("SSB", "ph"),
@@ -473,171 +810,570 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
     /**
      * Process index page with all years
      */
-    private void processIndexPage(String url, Path baseOutDir, int maxConcurrent, int maxRetries, String overwriteMode) {
-        final Document doc;
-        try {
-            doc = Jsoup.connect(url)
-                    .userAgent("CQWW-Log-Downloader/2.0 (+Java 21 Virtual Threads; SpringBoot)")
-                    .timeout(20_000)
-                    .get();
-        } catch (IOException e) {
-            log.error("IO error while loading index page: {}", e.getMessage(), e);
+    private void processIndexPage(String url, Path baseOutDir, AdaptiveLimiter limiter, int maxRetries, String overwriteMode) {
+        List<YearInfo> yearLinks = discoverYearLinksFromIndex(url);
+
+        if (yearLinks.isEmpty()) {
+            log.warn("No year links found on index page.");
             return;
         }
 
-        // Find all links to years (e.g. 2024ph, 2024cw, 2023ph, ...)
-        Map<String, YearInfo> yearLinks = new LinkedHashMap<>();
-        try {
-            Elements links = doc.select("a[href]");
-            for (Element a : links) {
-                String href = a.attr("href");
-                if (href == null || href.isBlank()) continue;
-
-                Matcher m = YEAR_PATTERN.matcher(href);
-                if (m.find()) {
-                    String year = m.group(1);
-                    String modeSuffix = m.group(2).toLowerCase(Locale.ROOT);
-                    String fullUrl = a.attr("abs:href");
-
-                    String key = year + modeSuffix;
-                    if (!yearLinks.containsKey(key)) {
-                        YearInfo info = new YearInfo();
-                        info.year = year;
-                        info.mode = switch (modeSuffix) {
-                            case "ph" -> "SSB";
-                            case "cw" -> "CW";
-                            case "rtty" -> "RTTY";
-                            default -> modeSuffix.toUpperCase(Locale.ROOT);
-                        };
-                        info.url = fullUrl;
-                        info.dirName = year + "_CQWW" + info.mode + "_LOGS";
-                        yearLinks.put(key, info);
+        log.info("Found {} categories to download", yearLinks.size());
+
+        // Jeden sdílený scheduler: další kategorie se načítá, zatímco dobíhá konec té předchozí
+        try (DownloadScheduler scheduler = new DownloadScheduler(limiter)) {
+            for (YearInfo info : yearLinks) {
+                try {
+                    scheduler.awaitBacklogBelow(Math.max(1, limiter.getLimit()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.error("Interrupted while waiting for download slots.", e);
+                    break;
+                }
+
+                log.info("═══════════════════════════════════════════════════════════");
+                log.info("Starting download: {} {} to directory: {}", info.year, info.mode, info.dirName);
+                log.info("═══════════════════════════════════════════════════════════");
+
+                Path yearOutDir = baseOutDir.resolve(info.dirName);
+                try {
+                    if (!Files.exists(yearOutDir)) {
+                        Files.createDirectories(yearOutDir);
                     }
+                } catch (IOException e) {
+                    log.error("Cannot create directory: {}", yearOutDir, e);
+                    continue;
                 }
+
+                scheduleYearPage(scheduler, info.dirName, info.url, yearOutDir, maxRetries, overwriteMode);
             }
+        }
+
+        log.info("═══════════════════════════════════════════════════════════");
+        log.info("ALL CATEGORIES DOWNLOAD COMPLETED");
+        log.info("═══════════════════════════════════════════════════════════");
+    }
+
+    /**
+     * Process page with logs for single year (original logic)
+     */
+    private void processSingleYearPage(String url, Path outDir, AdaptiveLimiter limiter, int maxRetries, String overwriteMode) {
+        try (DownloadScheduler scheduler = new DownloadScheduler(limiter)) {
+            scheduleYearPage(scheduler, null, url, outDir, maxRetries, overwriteMode);
         } catch (Exception e) {
-            log.error("Error while parsing year links.", e);
+            log.error("Unexpected executor error.", e);
+        }
+    }
+
+    /**
+     * Loads the year page and submits its logs to the scheduler. Statistics are logged when the category finishes.
+     */
+    private void scheduleYearPage(DownloadScheduler scheduler, String category, String url, Path outDir,
+                                  int maxRetries, String overwriteMode) {
+        // Jeden listing adresáře na kategorii místo Files.exists pro každý soubor
+        SyncManifest manifest = SyncManifest.load(outDir);
+        if (shard != null) shard.restore(outDir, manifest);
+        DownloadStats stats = new DownloadStats();
+        AdaptiveLimiter limiter = scheduler.getLimiter();
+        Set<URI> uris = new HashSet<>();
+        // --shard: celý výpis stránky a úlohy vlastních logů pro výsledek shardu
+        Map<String, DownloadTask> listing = new LinkedHashMap<>();
+
+        final LogStore store;
+        try {
+            store = LogStore.open(storeKind, outDir, manifest);
+        } catch (IOException e) {
+            log.error("Cannot open log store: {}", outDir, e);
             return;
         }
 
-        if (yearLinks.isEmpty()) {
-            log.warn("No year links found on index page.");
+        DownloadScheduler.Category tasks = scheduler.open(category != null ? category : url, () -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                log.error("Cannot write log store: {}", outDir, e);
+            }
+            if (shard != null) {
+                if (listing.isEmpty()) return;
+                writeShardResult(outDir, listing, manifest);
+                log.info("DONE | {}shard {} | {} of {} logs | {} (concurrency limit: {})",
+                        category != null ? category + " | " : "", shard, uris.size(), listing.size(),
+                        stats.summary(), limiter.getLimit());
+                return;
+            }
+            if (uris.isEmpty()) return;
+            manifest.save();
+            log.info("DONE | {}{} (concurrency limit: {})",
+                    category != null ? category + " | " : "", stats.summary(), limiter.getLimit());
+        });
+
+        // Stahování začíná už během načítání stránky
+        boolean loaded = loadLogLinks(url, uri -> {
+            String name = logFileName(uri);
+            if (shard != null && (listing.containsKey(name) || !shard.owns(name))) {
+                listing.putIfAbsent(name, null);
+                return;
+            }
+            if (uris.add(uri)) {
+                DownloadTask task = new DownloadTask(uri, store, maxRetries, overwriteMode, manifest, limiter, stats);
+                if (shard != null) listing.put(name, task);
+                tasks.submit(task);
+            }
+        });
+        int found = shard != null ? listing.size() : uris.size();
+        tasks.close();
+        if (!loaded) return;
+
+        if (found == 0) {
+            log.warn("No .log files found on page. url={}", url);
             return;
         }
 
-        log.info("Found {} categories to download", yearLinks.size());
+        log.info("Found .log files: {}{}", found, shard != null ? " (shard " + shard + ": " + uris.size() + ")" : "");
+    }
 
-        // Process each category
-        for (YearInfo info : yearLinks.values()) {
-            log.info("═══════════════════════════════════════════════════════════");
-            log.info("Starting download: {} {} to directory: {}", info.year, info.mode, info.dirName);
-            log.info("═══════════════════════════════════════════════════════════");
+    /**
+     * Writes the result of this shard for one category: state of the own logs, the rest of the listing as other.
+     */
+    private void writeShardResult(Path dir, Map<String, DownloadTask> listing, SyncManifest manifest) {
+        Map<String, String> status = new LinkedHashMap<>();
+        listing.forEach((name, task) -> status.put(name,
+                task == null ? Shard.OTHER : task.isFailed() ? Shard.FAILED : Shard.OK));
+        shard.write(dir, status, manifest);
+    }
 
-            Path yearOutDir = baseOutDir.resolve(info.dirName);
-            try {
-                if (!Files.exists(yearOutDir)) {
-                    Files.createDirectories(yearOutDir);
+    /**
+     * Name of the stored log (last path segment), also the key of the shard split.
+     */
+    static String logFileName(URI uri) {
+        return Path.of(uri.getPath()).getFileName().toString();
+    }
+
+    /**
+     * Daemon mode (--watch): polls the index and the year pages that can still change and downloads only logs
+     * not seen before. Pages are revalidated with conditional GETs (a 304 costs no parsing), the known logs of
+     * each category stay in memory, and the scheduler, limiter and HTTP connections stay warm between polls.
+     */
+    private final class Watch {
+        private static final String KEEPALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+        private static final long SHUTDOWN_WAIT_MS = 30_000;
+
+        private final String url;
+        private final boolean isIndexPage;
+        private final Path baseOutDir;
+        private final int maxRetries;
+        private final String overwriteMode;
+        private final Duration interval;
+        private final Duration resync;
+        private final Map<String, WatchedCategory> categories = new LinkedHashMap<>();
+        private volatile boolean stopping;
+
+        Watch(String url, boolean isIndexPage, Path baseOutDir, int maxRetries, String overwriteMode,
+              Duration interval, Duration resync) {
+            this.url = url;
+            this.isIndexPage = isIndexPage;
+            this.baseOutDir = baseOutDir;
+            this.maxRetries = maxRetries;
+            this.overwriteMode = overwriteMode;
+            this.interval = interval;
+            this.resync = resync;
+        }
+
+        void run(AdaptiveLimiter limiter) {
+            // validátory stránek musí přežít mezi dotazy i bez diskové cache
+            listingCache = listingCache.isEnabled() ? listingCache.withMemory() : ListingCache.inMemory();
+            // spojení mají vydržet pauzu mezi dotazy (výchozí idle timeout JDK klienta je 30 s)
+            if (System.getProperty(KEEPALIVE_PROPERTY) == null) {
+                System.setProperty(KEEPALIVE_PROPERTY, String.valueOf(interval.toSeconds() * 2 + 60));
+            }
+
+            Thread loop = Thread.currentThread();
+            Thread hook = new Thread(() -> {
+                stopping = true;
+                loop.interrupt();
+                try {
+                    loop.join(SHUTDOWN_WAIT_MS);
+                } catch (InterruptedException ignored) {
+                    // JVM končí
                 }
-            } catch (IOException e) {
-                log.error("Cannot create directory: {}", yearOutDir, e);
-                continue;
+            }, "watch-shutdown");
+            Runtime.getRuntime().addShutdownHook(hook);
+
+            log.info("Watch mode | {} every {} (+-{} %), known logs re-validated every {}",
+                    url, interval, Math.round(WATCH_JITTER * 100), resync);
+            try (DownloadScheduler scheduler = new DownloadScheduler(limiter)) {
+                for (int poll = 1; !stopping; poll++) {
+                    long start = System.nanoTime();
+                    int[] counts = poll(scheduler);
+                    Duration next = jitter(interval);
+                    log.info("WATCH | poll {} | pages: {} new logs: {} re-validated: {} ({} ms) | next poll in {}s",
+                            poll, counts[0], counts[1], counts[2], (System.nanoTime() - start) / 1_000_000, next.toSeconds());
+                    try {
+                        Thread.sleep(next);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                // rozjeté stahování doběhne, manifesty se uloží
+                Thread.interrupted();
+                log.info("Watch mode stopping, waiting for running downloads.");
+            } finally {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException e) {
+                    // vypínání už běží
+                }
+            }
+        }
+
+        /**
+         * One poll over all categories. Returns {pages requested, new logs queued, logs queued for re-validation}.
+         */
+        private int[] poll(DownloadScheduler scheduler) {
+            List<YearInfo> pages;
+            if (isIndexPage) {
+                pages = discoverYearLinksFromIndex(url, Duration.ZERO);
+            } else {
+                YearInfo single = new YearInfo();
+                single.url = url;
+                pages = List.of(single);
             }
+            int[] counts = new int[3];
+            for (YearInfo info : pages) {
+                if (stopping) break;
+                WatchedCategory c = categories.get(info.url);
+                if (c == null) {
+                    Path dir = info.dirName != null ? baseOutDir.resolve(info.dirName) : baseOutDir;
+                    try {
+                        Files.createDirectories(dir);
+                    } catch (IOException e) {
+                        log.error("Cannot create directory: {}", dir, e);
+                        continue;
+                    }
+                    c = new WatchedCategory(info.dirName != null ? info.dirName : info.url, info.url, dir);
+                    categories.put(info.url, c);
+                }
+                c.poll(scheduler, counts);
+            }
+            return counts;
+        }
 
-            processSingleYearPage(info.url, yearOutDir, maxConcurrent, maxRetries, overwriteMode);
+        private Duration jitter(Duration d) {
+            double f = 1 + (java.util.concurrent.ThreadLocalRandom.current().nextDouble() * 2 - 1) * WATCH_JITTER;
+            return Duration.ofMillis(Math.max(1000L, (long) (d.toMillis() * f)));
         }
 
-        log.info("═══════════════════════════════════════════════════════════");
-        log.info("ALL CATEGORIES DOWNLOAD COMPLETED");
-        log.info("═══════════════════════════════════════════════════════════");
+        /**
+         * Known and in-flight logs of one category.
+         */
+        private final class WatchedCategory {
+            private final String name;
+            private final String pageUrl;
+            private final Path dir;
+            private final SyncManifest manifest;
+            private final Set<URI> known = ConcurrentHashMap.newKeySet();
+            private final Set<URI> pending = ConcurrentHashMap.newKeySet();
+            private Set<URI> links = Set.of();
+            private boolean listed;
+            private long lastResyncNanos;
+
+            private WatchedCategory(String name, String pageUrl, Path dir) {
+                this.name = name;
+                this.pageUrl = pageUrl;
+                this.dir = dir;
+                this.manifest = SyncManifest.load(dir);
+                if (shard != null) shard.restore(dir, manifest);
+            }
+
+            private void poll(DownloadScheduler scheduler, int[] counts) {
+                // předchozí dávka ještě běží (store kategorie smí být otevřený jen jednou)
+                if (!pending.isEmpty()) return;
+                // stránky starších ročníků se už nemění, po prvním načtení stačí seznam v paměti
+                if (!listed || !isArchiveYear(pageUrl)) {
+                    Set<URI> page = new LinkedHashSet<>();
+                    if (!loadLogLinks(pageUrl, Duration.ZERO, page::add)) return;
+                    links = page;
+                    listed = true;
+                    counts[0]++;
+                }
+
+                long now = System.nanoTime();
+                boolean first = lastResyncNanos == 0;
+                boolean revalidate = !first && now - lastResyncNanos >= resync.toNanos();
+                List<URI> fresh = new ArrayList<>();
+                List<URI> again = new ArrayList<>();
+                for (URI uri : links) {
+                    if (shard != null && !shard.owns(logFileName(uri))) continue;
+                    if (!known.contains(uri)) fresh.add(uri);
+                    else if (revalidate) again.add(uri);
+                }
+                if (first || revalidate) lastResyncNanos = now;
+                if (fresh.isEmpty() && again.isEmpty()) return;
+
+                final LogStore store;
+                try {
+                    store = LogStore.open(storeKind, dir, manifest);
+                } catch (IOException e) {
+                    log.error("Cannot open log store: {}", dir, e);
+                    return;
+                }
+                DownloadStats stats = new DownloadStats();
+                AdaptiveLimiter limiter = scheduler.getLimiter();
+                Set<URI> page = links;
+                DownloadScheduler.Category tasks = scheduler.open(name, () -> {
+                    try {
+                        store.close();
+                    } catch (IOException e) {
+                        log.error("Cannot write log store: {}", dir, e);
+                    }
+                    if (shard != null) {
+                        Map<String, String> status = new LinkedHashMap<>();
+                        for (URI uri : page) {
+                            String file = logFileName(uri);
+                            status.put(file, !shard.owns(file) ? Shard.OTHER : known.contains(uri) ? Shard.OK : Shard.FAILED);
+                        }
+                        shard.write(dir, status, manifest);
+                    } else {
+                        manifest.save();
+                    }
+                    log.info("DONE | {} | {} (concurrency limit: {})", name, stats.summary(), limiter.getLimit());
+                });
+                for (URI uri : fresh) submit(tasks, uri, new DownloadTask(uri, store, maxRetries, overwriteMode, manifest, limiter, stats));
+                // známé logy jen podmíněným GETem
+                for (URI uri : again) submit(tasks, uri, new DownloadTask(uri, store, maxRetries, "sync", manifest, limiter, stats));
+                tasks.close();
+                counts[1] += fresh.size();
+                counts[2] += again.size();
+                if (!fresh.isEmpty() && !first) log.info("WATCH | {} | {} new logs", name, fresh.size());
+            }
+
+            private void submit(DownloadScheduler.Category tasks, URI uri, DownloadTask task) {
+                pending.add(uri);
+                tasks.submit(() -> {
+                    long retryInMs = task.runAttempt();
+                    if (retryInMs < 0) {
+                        // neúspěšné zůstávají neznámé -> další dotaz je zkusí znovu
+                        if (!task.isFailed()) known.add(uri);
+                        pending.remove(uri);
+                    }
+                    return retryInMs;
+                });
+            }
+        }
     }
 
     /**
-     * Process page with logs for single year (original logic)
+     * Streams .log links of a year page to {@code onLink}, returns false on error.
      */
-    private void processSingleYearPage(String url, Path outDir, int maxConcurrent, int maxRetries, String overwriteMode) {
-        final Document doc;
+    private boolean loadLogLinks(String url, Consumer<URI> onLink) {
+        return loadLogLinks(url, ttlFor(url), onLink);
+    }
+
+    private boolean loadLogLinks(String url, Duration ttl, Consumer<URI> onLink) {
         try {
-            doc = Jsoup.connect(url)
-                    .userAgent("CQWW-Log-Downloader/2.0 (+Java 21 Virtual Threads; SpringBoot)")
-                    .timeout(20_000)
-                    .get();
+            fetchLogLinks(url, ttl, onLink);
+            return true;
         } catch (UnknownHostException e) {
             log.error("DNS error (UnknownHost): {}", e.getMessage(), e);
-            return;
         } catch (HttpTimeoutException e) {
             log.error("Timeout while loading list: {}", e.getMessage(), e);
-            return;
         } catch (IOException e) {
             log.error("IO error while loading list: {}", e.getMessage(), e);
-            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while loading list: {}", url, e);
         } catch (IllegalArgumentException e) {
             log.error("Invalid URL or connection parameters: {}", url, e);
-            return;
         } catch (SecurityException e) {
             log.error("Security restriction during network communication: {}", e.getMessage(), e);
-            return;
         }
+        return false;
+    }
 
+    /**
+     * .log links of a year page (through the listing cache).
+     */
+    private Set<URI> fetchLogLinks(String url) throws IOException, InterruptedException {
         Set<URI> uris = new LinkedHashSet<>();
-        try {
-            Elements links = doc.select("a[href]");
-            for (Element a : links) {
-                String abs = a.attr("abs:href");
-                if (abs == null || abs.isBlank()) continue;
-                String lower = abs.toLowerCase(Locale.ROOT);
-                if (!lower.endsWith(".log")) continue;
-                try {
-                    uris.add(new URI(abs));
-                } catch (URISyntaxException ex) {
-                    log.warn("Skipped invalid link: {}", abs, ex);
-                }
+        fetchLogLinks(url, uris::add);
+        return uris;
+    }
+
+    private void fetchLogLinks(String url, Consumer<URI> onLink) throws IOException, InterruptedException {
+        fetchLogLinks(url, ttlFor(url), onLink);
+    }
+
+    private void fetchLogLinks(String url, Duration ttl, Consumer<URI> onLink) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        listingCache.stream(url, ttl, StreamingLinkExtractor::extractLogLinks, abs -> {
+            try {
+                onLink.accept(new URI(abs));
+            } catch (URISyntaxException ex) {
+                log.warn("Skipped invalid link: {}", abs, ex);
             }
-        } catch (Exception e) {
-            log.error("Error while parsing HTML.", e);
-            return;
-        }
+        });
+        Matcher m = YEAR_PATTERN.matcher(url);
+        DownloadMetrics.get().pageLoaded(m.find() ? m.group().toLowerCase(Locale.ROOT) : "other", System.nanoTime() - start);
+    }
 
-        if (uris.isEmpty()) {
-            log.warn("No .log files found on page. url={}", url);
+    /**
+     * Pages of past contest years do not change anymore, they use the longer archive TTL.
+     */
+    private Duration ttlFor(String url) {
+        return isArchiveYear(url) ? archiveCacheTtl : cacheTtl;
+    }
+
+    private static boolean isArchiveYear(String url) {
+        Matcher m = YEAR_PATTERN.matcher(url);
+        return m.find() && Integer.parseInt(m.group(1)) < java.time.Year.now().getValue() - 1;
+    }
+
+    /**
+     * Listing cache options: --cache, --cacheDir, --cacheTtl, --cacheMaxEntries.
+     */
+    private void configureListingCache(ApplicationArguments args) {
+        boolean enabled = getSingleOption(args, "cache").map(v -> !"false".equalsIgnoreCase(v)).orElse(true);
+        cacheTtl = getSingleOption(args, "cacheTtl").map(v -> parseDurationSafe(v, DEFAULT_CACHE_TTL)).orElse(DEFAULT_CACHE_TTL);
+        archiveCacheTtl = cacheTtl.compareTo(ARCHIVE_CACHE_TTL) > 0 ? cacheTtl : ARCHIVE_CACHE_TTL;
+        if (!enabled) {
+            listingCache = ListingCache.disabled();
             return;
         }
+        Path dir = getSingleOption(args, "cacheDir").map(Path::of)
+                .orElse(Path.of(System.getProperty("user.home"), ".cache", "cqww-downloader"));
+        int maxEntries = getSingleOption(args, "cacheMaxEntries").map(v -> parseIntSafe(v, 1000)).orElse(1000);
+        listingCache = new ListingCache(dir, maxEntries);
+        log.debug("Listing cache: dir={} ttl={} archiveTtl={} maxEntries={}", dir, cacheTtl, archiveCacheTtl, maxEntries);
+    }
 
-        log.info("Found .log files: {}", uris.size());
+    /**
+     * HTTP options: --httpVersion (2 or 1.1), --streamsPerConnection. The pool is sized for --maxConcurrent.
+     */
+    private boolean configureHttpClients(ApplicationArguments args) {
+        String v = getSingleOption(args, "httpVersion").orElse("2").trim();
+        HttpClient.Version version = switch (v) {
+            case "2", "2.0" -> HttpClient.Version.HTTP_2;
+            case "1.1" -> HttpClient.Version.HTTP_1_1;
+            default -> null;
+        };
+        if (version == null) {
+            log.error("Invalid --httpVersion value: {}. Allowed values: 2, 1.1", v);
+            return false;
+        }
+        int maxConcurrent = getSingleOption(args, "maxConcurrent").map(c -> Math.max(1, parseIntSafe(c, 100))).orElse(100);
+        int streams = getSingleOption(args, "streamsPerConnection")
+                .map(c -> Math.max(1, parseIntSafe(c, HttpClientPool.DEFAULT_STREAMS_PER_CONNECTION)))
+                .orElse(HttpClientPool.DEFAULT_STREAMS_PER_CONNECTION);
+        HttpClientPool pool = new HttpClientPool(version, maxConcurrent, streams);
+        HttpDownloadUtils.configureClients(pool);
+        boolean compression = !"false".equalsIgnoreCase(getSingleOption(args, "compression").orElse("true").trim());
+        HttpDownloadUtils.configureCompression(compression);
+        log.debug("HTTP clients: version={} connections={} streamsPerConnection={} compression={}",
+                version, pool.size(), streams, compression);
+        return true;
+    }
 
-        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+    /**
+     * Rate limit options: --maxRequestsPerSecond, --maxBytesPerSecond, --rateLimitWindow (limits only in that time of day).
+     */
+    private boolean configureRateLimits(ApplicationArguments args) {
+        double rps = getSingleOption(args, "maxRequestsPerSecond").map(v -> parseDoubleSafe(v, 0)).orElse(0.0);
+        long bps = getSingleOption(args, "maxBytesPerSecond").map(v -> parseSizeSafe(v, 0)).orElse(0L);
+        RateLimiter.Window window = null;
+        Optional<String> w = getSingleOption(args, "rateLimitWindow");
+        if (w.isPresent()) {
+            try {
+                window = RateLimiter.Window.parse(w.get());
+            } catch (RuntimeException e) {
+                log.error("Invalid --rateLimitWindow value: {}. Expected HH:mm-HH:mm, e.g. 07:00-23:00", w.get());
+                return false;
+            }
+        }
+        RateLimiter limiter = new RateLimiter(rps, bps, window);
+        HttpDownloadUtils.configureRateLimits(limiter.isLimited() ? limiter : RateLimiter.unlimited());
+        if (limiter.isLimited()) log.info("Rate limits: {}", limiter);
+        return true;
+    }
 
-            final Semaphore gate = new Semaphore(maxConcurrent);
+    /**
+     * --shard=i/n: this node downloads only its part of every listed category.
+     */
+    private boolean configureShard(ApplicationArguments args) {
+        Optional<String> spec = getSingleOption(args, "shard");
+        if (spec.isEmpty()) return true;
+        try {
+            shard = Shard.parse(spec.get());
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid --shard value: {}. Expected i/n with 1 <= i <= n, e.g. 2/4", spec.get());
+            return false;
+        }
+        if (storeKind.equals("zip")) {
+            // jeden logs.zip na kategorii by si shardy ve sdíleném adresáři přepisovaly
+            log.error("--shard cannot be combined with --store=zip, use files or cas");
+            return false;
+        }
+        if (args.containsOption("call") || args.containsOption("calls")) {
+            log.warn("--shard applies to --url downloads only, ignored for --call / --calls");
+            shard = null;
+        }
+        return true;
+    }
 
-            AtomicInteger ok = new AtomicInteger(0);
-            AtomicInteger failed = new AtomicInteger(0);
-            AtomicInteger skipped = new AtomicInteger(0);
-            AtomicLong totalBytes = new AtomicLong(0);
+    private boolean isValidOverwriteMode(String overwriteMode) {
+        return switch (overwriteMode) {
+            case "skip", "new", "replace", "sync", "verify", "verify-local" -> true;
+            default -> false;
+        };
+    }
 
-            var futures = uris.stream().map(uri -> executor.submit(() -> {
-                gate.acquireUninterruptibly();
-                try {
-                    new DownloadTask(uri, outDir, maxRetries, overwriteMode, totalBytes, ok, failed, skipped).call();
-                } finally {
-                    gate.release();
-                }
-                return null;
-            })).toList();
+    /**
+     * Parses durations like 90s, 30m, 6h, 2d (or ISO-8601, e.g. PT30M).
+     */
+    private Duration parseDurationSafe(String s, Duration def) {
+        String v = s.trim().toLowerCase(Locale.ROOT);
+        try {
+            if (v.startsWith("p")) return Duration.parse(v.toUpperCase(Locale.ROOT));
+            long n = Long.parseLong(v.substring(0, v.length() - 1));
+            return switch (v.charAt(v.length() - 1)) {
+                case 's' -> Duration.ofSeconds(n);
+                case 'm' -> Duration.ofMinutes(n);
+                case 'h' -> Duration.ofHours(n);
+                case 'd' -> Duration.ofDays(n);
+                default -> Duration.ofSeconds(Long.parseLong(v));
+            };
+        } catch (RuntimeException e) {
+            log.warn("Cannot parse duration '{}', using default {}.", s, def);
+            return def;
+        }
+    }
 
-            for (Future<?> f : futures) {
-                try {
-                    f.get();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    log.error("Interrupted while waiting for task.", e);
-                } catch (ExecutionException e) {
-                    log.debug("Exception from task (already logged).", e.getCause());
-                }
-            }
+    private double parseDoubleSafe(String s, double def) {
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Cannot parse number '{}', using default {}.", s, def);
+            return def;
+        }
+    }
 
-            log.info("DONE | successful: {} skipped: {} failed: {} total: {}B",
-                    ok.get(), skipped.get(), failed.get(), totalBytes.get());
-        } catch (Exception e) {
-            log.error("Unexpected executor error.", e);
+    /**
+     * Parses byte sizes like 512K, 20M, 1G (powers of 1024) or plain bytes.
+     */
+    private long parseSizeSafe(String s, long def) {
+        String v = s.trim().toUpperCase(Locale.ROOT).replaceFirst("I?B$", "");
+        try {
+            if (v.isEmpty()) throw new NumberFormatException();
+            long unit = switch (v.charAt(v.length() - 1)) {
+                case 'K' -> 1L << 10;
+                case 'M' -> 1L << 20;
+                case 'G' -> 1L << 30;
+                default -> 1L;
+            };
+            String n = unit == 1L ? v : v.substring(0, v.length() - 1);
+            return Math.round(Double.parseDouble(n.trim()) * unit);
+        } catch (NumberFormatException e) {
+            log.warn("Cannot parse size '{}', using default {}.", s, def);
+            return def;
         }
     }
 
@@ -661,107 +1397,292 @@ public class CqwwLogDownloaderApplication implements ApplicationRunner {
     }
 
     @Slf4j
-    static class DownloadTask implements Callable<Void> {
+    static class DownloadTask implements Callable<Void>, DownloadScheduler.Job {
+        private static final long BACKOFF_BASE_MS = 500;
+        private static final long BACKOFF_MAX_MS = 8000;
+
         private final URI uri;
-        private final Path outDir;
+        private final LogStore store;
         private final int maxRetries;
         private final String overwriteMode;
         private final String forcedFileName;
-        private final AtomicLong totalBytes;
-        private final AtomicInteger ok, failed, skipped;
-
-        private static final boolean COLOR = System.console() != null;
-        private static final String GREEN = COLOR ? "\u001B[32m" : "";
-        private static final String RED = COLOR ? "\u001B[31m" : "";
-        private static final String YELLOW = COLOR ? "\u001B[33m" : "";
-        private static final String RESET = COLOR ? "\u001B[0m" : "";
-
-        DownloadTask(URI uri, Path outDir, int maxRetries, String overwriteMode,
-                     AtomicLong totalBytes, AtomicInteger ok, AtomicInteger failed, AtomicInteger skipped) {
-            this(uri, outDir, maxRetries, overwriteMode, null, totalBytes, ok, failed, skipped);
+        private final SyncManifest manifest;
+        private final AdaptiveLimiter limiter;
+        private final DownloadStats stats;
+        private final String cid = java.util.UUID.randomUUID().toString().substring(0, 8);
+
+        // stav mezi pokusy (pokus vždy běží v jednom vlákně, další až po jeho skončení)
+        private boolean prepared;
+        private int attempt;
+        private String fileName;
+        private Path targetPath;
+        private SyncManifest.Entry previous;
+        private boolean verifying;
+        private volatile boolean failed;
+
+        DownloadTask(URI uri, LogStore store, int maxRetries, String overwriteMode, SyncManifest manifest,
+                     AdaptiveLimiter limiter, DownloadStats stats) {
+            this(uri, store, maxRetries, overwriteMode, null, manifest, limiter, stats);
         }
 
-        DownloadTask(URI uri, Path outDir, int maxRetries, String overwriteMode, String forcedFileName,
-                     AtomicLong totalBytes, AtomicInteger ok, AtomicInteger failed, AtomicInteger skipped) {
+        DownloadTask(URI uri, LogStore store, int maxRetries, String overwriteMode, String forcedFileName,
+                     SyncManifest manifest, AdaptiveLimiter limiter, DownloadStats stats) {
             this.uri = uri;
-            this.outDir = outDir;
+            this.store = store;
             this.maxRetries = maxRetries;
             this.overwriteMode = overwriteMode;
             this.forcedFileName = forcedFileName;
-            this.totalBytes = totalBytes;
-            this.ok = ok;
-            this.failed = failed;
-            this.skipped = skipped;
+            this.manifest = manifest;
+            this.limiter = limiter;
+            this.stats = stats;
+            ProgressReporter.get().expect();
         }
 
+        /**
+         * Runs all attempts in the calling thread, sleeping between them (used outside the scheduler).
+         */
         @Override
         public Void call() {
-            String cid = java.util.UUID.randomUUID().toString().substring(0, 8);
+            long delay;
+            while ((delay = runAttempt()) >= 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    log.error("Interrupted while waiting for retry", ie);
+                    failed = true;
+                    stats.failed.incrementAndGet();
+                    DownloadMetrics.get().filesFailed.increment();
+                    ProgressReporter.get().publish(ProgressReporter.Kind.FAILED, fileName, 0L, "interrupted");
+                    break;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * One download attempt. Returns the backoff in ms before the next attempt, or -1 when the task is finished.
+         */
+        @Override
+        public long runAttempt() {
             org.slf4j.MDC.put("cid", "[" + cid + "]");
+            try {
+                if (!prepared) {
+                    prepared = true;
+                    if (!prepare()) return -1L;
+                }
+                return download();
+            } finally {
+                org.slf4j.MDC.remove("cid");
+            }
+        }
+
+        /**
+         * True when the task gave up (retries exhausted or interrupted).
+         */
+        boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Resolves the target file and overwrite handling. Returns false when the file is skipped.
+         */
+        private boolean prepare() {
+            String originalFileName = logFileName(uri);
+            fileName = (forcedFileName != null && !forcedFileName.isBlank()) ? forcedFileName : originalFileName;
+            targetPath = store.target(fileName);
+
+            if (store.exists(fileName)) {
+                switch (overwriteMode) {
+                    case "skip":
+                        stats.skipped.incrementAndGet();
+                        DownloadMetrics.get().filesSkipped.increment();
+                        ProgressReporter.get().publish(ProgressReporter.Kind.SKIPPED, fileName, 0L, null);
+                        return false;
+
+                    case "new":
+                        String newFileName = fileName.replaceFirst("(\\.[^.]+)$", "_new$1");
+                        targetPath = store.target(newFileName);
+                        log.debug("File exists, downloading as: {}", newFileName);
+                        break;
+
+                    case "replace":
+                        log.debug("File exists, will be replaced: {}", fileName);
+                        break;
 
-            String originalFileName = Path.of(uri.getPath()).getFileName().toString();
-            String fileName = (forcedFileName != null && !forcedFileName.isBlank()) ? forcedFileName : originalFileName;
+                    case "sync":
+                        previous = manifest != null ? manifest.get(fileName) : null;
+                        if (previous != null && !previous.hasValidators()) previous = null;
+                        log.debug("File exists, conditional GET: {} (validators: {})", fileName, previous != null);
+                        break;
 
+                    case "verify", "verify-local":
+                        // kontrola proběhne v prvním pokusu (HEAD se opakuje jako stahování)
+                        verifying = true;
+                        break;
+                }
+            } else if (overwriteMode.startsWith("verify")) {
+                log.warn("VERIFY | {} | missing", fileName);
+            }
+            return true;
+        }
+
+        /**
+         * Checks the stored log: size and SHA-256 against the manifest (checksum from the memory-mapped file,
+         * archive entries are inflated and their CRC checked), then for {@code verify} size and validators against
+         * a HEAD response.
+         * Returns null when the log is intact, otherwise why it has to be downloaded again.
+         */
+        private String verify() throws IOException, InterruptedException {
+            SyncManifest.Entry entry = manifest != null ? manifest.get(fileName) : null;
+            Path local = store.stored(fileName);
+            long size = Files.size(local);
+            if (entry != null && size != entry.size()) {
+                return (size < entry.size() ? "truncated" : "size differs from manifest")
+                        + " (" + size + "/" + entry.size() + " B)";
+            }
+            String sha;
             try {
-                Path targetPath = outDir.resolve(fileName);
-
-                if (Files.exists(targetPath)) {
-                    switch (overwriteMode) {
-                        case "skip":
-                            skipped.incrementAndGet();
-                            log.info("Skipped (already exists): {}", fileName);
-                            System.out.printf("%s⏭️  [SKIP]%s %s (already exists)%n", YELLOW, RESET, fileName);
-                            return null;
-
-                        case "new":
-                            String newFileName = fileName.replaceFirst("(\\.[^.]+)$", "_new$1");
-                            targetPath = outDir.resolve(newFileName);
-                            log.info("File exists, downloading as: {}", newFileName);
-                            break;
-
-                        case "replace":
-                            log.info("File exists, will be replaced: {}", fileName);
-                            break;
+                sha = store.sha256(fileName);
+            } catch (ZipException e) {
+                return "corrupt archive entry (" + e.getMessage() + ")";
+            }
+            if (entry != null && entry.sha256() != null && !sha.equals(entry.sha256())) return "checksum mismatch";
+
+            HttpDownloadUtils.Head head = null;
+            if (overwriteMode.equals("verify")) {
+                head = HttpDownloadUtils.head(uri, Duration.ofSeconds(60));
+                DownloadMetrics.get().ttfb.record(head.headerNanos());
+                if (limiter != null) limiter.onSuccess(head.headerNanos());
+                if (head.supported()) {
+                    if (head.contentLength() >= 0 && head.contentLength() != size) {
+                        return (size < head.contentLength() ? "truncated" : "size differs from server")
+                                + " (" + size + "/" + head.contentLength() + " B)";
+                    }
+                    if (entry != null && entry.etag() != null && head.etag() != null) {
+                        if (!stripWeak(entry.etag()).equals(stripWeak(head.etag()))) return "changed on server (ETag)";
+                    } else if (entry != null && entry.lastModified() != null && head.lastModified() != null
+                            && !entry.lastModified().equals(head.lastModified())) {
+                        return "changed on server (Last-Modified)";
                     }
+                } else {
+                    head = null;
                 }
+            }
 
-                long bytes = 0L;
-                int attempt = 0;
-                long waitMs = 500;
+            // log bez záznamu v manifestu: po kontrole se zapíše, příště se ověří i checksum
+            if (manifest != null && (entry == null || entry.sha256() == null)) {
+                manifest.put(fileName, new SyncManifest.Entry(
+                        head != null ? head.etag() : entry != null ? entry.etag() : null,
+                        head != null ? head.lastModified() : entry != null ? entry.lastModified() : null,
+                        size, Files.getLastModifiedTime(local).toMillis(), sha));
+            }
+            return null;
+        }
 
-                while (true) {
-                    attempt++;
-                    try {
-                        bytes = HttpDownloadUtils.downloadToFile(uri, targetPath, Duration.ofSeconds(60));
-                        ok.incrementAndGet();
-                        totalBytes.addAndGet(bytes);
-                        log.info("Downloaded: {} ({} B) -> {}", uri, bytes, targetPath.getFileName());
-                        System.out.printf("%s⬇️  [OK]%s %s (%d B)%n", GREEN, RESET, targetPath.getFileName(), bytes);
-                        break;
-                    } catch (Exception e) {
-                        String msg = e.getMessage() != null ? e.getMessage() : e.toString();
-                        log.warn("Download error (attempt {}/{}): {} - {}", attempt, maxRetries + 1, uri, msg);
-                        System.out.printf("%s❌ [ERR]%s %s (%s)%n", RED, RESET, fileName, msg);
-                        if (attempt > maxRetries) {
-                            failed.incrementAndGet();
-                            log.error("Retries exhausted: {}", uri);
-                            break;
-                        }
-                        try {
-                            Thread.sleep(waitMs);
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            log.error("Interrupted while waiting for retry", ie);
-                            failed.incrementAndGet();
-                            break;
-                        }
-                        waitMs = Math.min(waitMs * 2, 8000);
+        private static String stripWeak(String etag) {
+            return etag.startsWith("W/") ? etag.substring(2) : etag;
+        }
+
+        private long download() {
+            DownloadMetrics metrics = DownloadMetrics.get();
+            attempt++;
+            metrics.requests.increment();
+            if (attempt > 1) metrics.retries.increment();
+            long attemptStart = System.nanoTime();
+            try {
+                if (verifying) {
+                    String problem = verify();
+                    verifying = false;
+                    if (problem == null) {
+                        stats.verified.incrementAndGet();
+                        metrics.filesVerified.increment();
+                        ProgressReporter.get().publish(ProgressReporter.Kind.VERIFIED, fileName, 0L, null);
+                        return -1L;
                     }
+                    log.warn("VERIFY | {} | {}", fileName, problem);
                 }
-            } finally {
-                org.slf4j.MDC.remove("cid");
+                HttpDownloadUtils.Result result = HttpDownloadUtils.downloadIfModified(uri, targetPath, Duration.ofSeconds(60),
+                        previous != null ? previous.etag() : null,
+                        previous != null ? previous.lastModified() : null);
+                complete(result, attemptStart);
+                return -1L;
+            } catch (Exception e) {
+                String msg = e.getMessage() != null ? e.getMessage() : e.toString();
+                metrics.error(e);
+                if (limiter != null && AdaptiveLimiter.isOverload(e)) limiter.onOverload(msg);
+                log.debug("Download error (attempt {}/{}): {} - {}", attempt, maxRetries + 1, uri, msg);
+                ProgressReporter.get().publish(ProgressReporter.Kind.ERROR, fileName, 0L,
+                        "attempt " + attempt + "/" + (maxRetries + 1) + ": " + msg);
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                } else if (attempt <= maxRetries) {
+                    long delay = backoffMs(attempt);
+                    log.debug("Retry {} of {} in {} ms", attempt + 1, uri, delay);
+                    return delay;
+                }
+                failed = true;
+                stats.failed.incrementAndGet();
+                metrics.filesFailed.increment();
+                log.error("Retries exhausted: {} - {}", uri, msg);
+                ProgressReporter.get().publish(ProgressReporter.Kind.FAILED, fileName, 0L, msg);
+                return -1L;
             }
-            return null;
+        }
+
+        private void complete(HttpDownloadUtils.Result result, long attemptStart) throws IOException {
+            DownloadMetrics metrics = DownloadMetrics.get();
+            metrics.ttfb.record(result.headerNanos());
+            metrics.duration.record(System.nanoTime() - attemptStart);
+            metrics.bytes.add(result.bytes() - result.resumedFrom());
+            metrics.wireBytes.add(result.wireBytes());
+            if (limiter != null) limiter.onSuccess(result.headerNanos());
+            if (result.notModified()) {
+                stats.skipped.incrementAndGet();
+                metrics.filesNotModified.increment();
+                ProgressReporter.get().publish(ProgressReporter.Kind.NOT_MODIFIED, fileName, 0L, null);
+                return;
+            }
+            long bytes = result.bytes();
+            if (result.resumedFrom() > 0) {
+                log.debug("Resumed: {} from {} B", uri, result.resumedFrom());
+            }
+            String name = targetPath.getFileName().toString();
+            long mtime = Files.getLastModifiedTime(targetPath).toMillis();
+
+            // --overwrite=new: obsah shodný s existujícím souborem -> žádná kopie _new
+            SyncManifest.Entry existing = manifest != null && !name.equals(fileName) ? manifest.get(fileName) : null;
+            boolean unchanged;
+            if (existing != null && result.sha256().equals(existing.sha256())) {
+                Files.deleteIfExists(targetPath);
+                name = fileName;
+                unchanged = true;
+            } else {
+                unchanged = !store.commit(name, targetPath, result.sha256());
+            }
+            if (manifest != null) {
+                manifest.put(name, new SyncManifest.Entry(result.etag(), result.lastModified(), bytes, mtime,
+                        result.sha256()));
+            }
+            if (unchanged) {
+                stats.unchanged.incrementAndGet();
+                metrics.filesUnchanged.increment();
+                ProgressReporter.get().publish(ProgressReporter.Kind.UNCHANGED, name, bytes, null);
+                return;
+            }
+            stats.ok.incrementAndGet();
+            metrics.filesOk.increment();
+            stats.totalBytes.addAndGet(bytes);
+            stats.wireBytes.addAndGet(result.wireBytes() + result.resumedFrom());
+            ProgressReporter.get().publish(ProgressReporter.Kind.OK, targetPath.getFileName().toString(), bytes, null);
+        }
+
+        /**
+         * Exponential backoff with jitter: a random value between half and the full step (500 ms, 1 s, ... 8 s).
+         */
+        static long backoffMs(int attempt) {
+            long step = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt - 1, 16));
+            return step / 2 + java.util.concurrent.ThreadLocalRandom.current().nextLong(step / 2 + 1);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package cz.ok1xoe.cqww;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of equally sized direct buffers for the body writer.
+ * <p>
+ * Direct memory is released only by the GC, so buffers are reused instead of allocated per download. When the pool
+ * is empty a new buffer is allocated; buffers above the capacity are dropped on release.
+ */
+final class DirectBufferPool {
+
+    static final int BUFFER_SIZE = 32 * 1024;
+    // 100 souběžných stažení x 4 buffery
+    private static final DirectBufferPool SHARED = new DirectBufferPool(BUFFER_SIZE, 400);
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    DirectBufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    static DirectBufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Cleared buffer of {@code bufferSize} bytes.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer b = free.poll();
+        return b != null ? b : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void release(ByteBuffer b) {
+        b.clear();
+        free.offer(b);
+    }
+}
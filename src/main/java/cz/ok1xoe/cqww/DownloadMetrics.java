@@ -0,0 +1,142 @@
+package cz.ok1xoe.cqww;
+
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide download metrics (counters, log2 latency histograms, page load times per category).
+ * <p>
+ * All hot-path updates go to {@link LongAdder}s, so many virtual threads can record without contention.
+ * Snapshots are rendered as Prometheus text format or JSON by {@link MetricsExporter}.
+ */
+final class DownloadMetrics {
+
+    private static final DownloadMetrics INSTANCE = new DownloadMetrics();
+
+    static DownloadMetrics get() {
+        return INSTANCE;
+    }
+
+    final long startNanos = System.nanoTime();
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder retries = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder wireBytes = new LongAdder();
+    final LongAdder inFlight = new LongAdder();
+    final LongAdder connectionsReplaced = new LongAdder();
+    final LongAdder filesOk = new LongAdder();
+    final LongAdder filesSkipped = new LongAdder();
+    final LongAdder filesNotModified = new LongAdder();
+    final LongAdder filesUnchanged = new LongAdder();
+    final LongAdder filesVerified = new LongAdder();
+    final LongAdder filesFailed = new LongAdder();
+
+    final Histogram ttfb = new Histogram();
+    final Histogram duration = new Histogram();
+    final Histogram permitWait = new Histogram();
+
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> pageLoad = new ConcurrentHashMap<>();
+
+    private DownloadMetrics() {
+    }
+
+    void error(Throwable e) {
+        errors.computeIfAbsent(cause(e), k -> new LongAdder()).increment();
+    }
+
+    void pageLoaded(String category, long nanos) {
+        pageLoad.computeIfAbsent(category, k -> new Histogram()).record(nanos);
+    }
+
+    Map<String, Long> errors() {
+        Map<String, Long> m = new TreeMap<>();
+        errors.forEach((k, v) -> m.put(k, v.sum()));
+        return m;
+    }
+
+    Map<String, Histogram> pageLoad() {
+        return new TreeMap<>(pageLoad);
+    }
+
+    /**
+     * Short error label: http_503, timeout, goaway, connect, io, or the exception class.
+     */
+    static String cause(Throwable e) {
+        if (e instanceof HttpDownloadUtils.HttpStatusException hse) return "http_" + hse.getStatusCode();
+        if (e instanceof HttpTimeoutException) return "timeout";
+        if (HttpClientPool.isGoAway(e)) return "goaway";
+        if (e instanceof ConnectException) return "connect";
+        if (e instanceof java.io.IOException) return "io";
+        return e.getClass().getSimpleName();
+    }
+
+    /**
+     * Histogram with power-of-two buckets in microseconds (bucket i holds values below 2^i µs).
+     */
+    static final class Histogram {
+        static final int BUCKETS = 40;
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            counts[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Bucket counts read once; the total and all cumulative counts derived from the same snapshot are
+         * consistent even while other threads record.
+         */
+        long[] snapshot() {
+            long[] s = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) s[i] = counts[i].sum();
+            return s;
+        }
+
+        static long count(long[] snapshot) {
+            long total = 0;
+            for (long c : snapshot) total += c;
+            return total;
+        }
+
+        double sumSeconds() {
+            return sumNanos.sum() / 1e9;
+        }
+
+        /**
+         * Upper bound of bucket {@code i} in seconds.
+         */
+        static double upperBoundSeconds(int i) {
+            return (1L << i) / 1e6;
+        }
+
+        /**
+         * Approximate quantile (upper bound of the bucket containing it) in seconds.
+         */
+        static double quantileSeconds(long[] snapshot, double q) {
+            long total = count(snapshot);
+            if (total == 0) return 0.0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return upperBoundSeconds(i);
+            }
+            return upperBoundSeconds(BUCKETS - 1);
+        }
+    }
+}
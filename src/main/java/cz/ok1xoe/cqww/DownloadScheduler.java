@@ -0,0 +1,186 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Download scheduler shared by all categories of one run.
+ * <p>
+ * All tasks run on one virtual-thread executor behind one {@link AdaptiveLimiter}, so the next
+ * category can be fed in while the tail of the current one is still downloading.
+ * Each category reports its own statistics when its last task finishes.
+ * <p>
+ * A {@link Job} whose attempt failed gives its permit back and is re-queued with a due time; once due it
+ * competes for a permit with fresh work, so tasks waiting for a retry never block the concurrency slots.
+ */
+@Slf4j
+final class DownloadScheduler implements AutoCloseable {
+
+    private final AdaptiveLimiter limiter;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "retry-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // úlohy odeslané do executoru, které ještě nedostaly permit
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition backlogChanged = lock.newCondition();
+    private int backlog;
+    // úlohy, které ještě neskončily (včetně čekajících na opakování)
+    private int outstanding;
+
+    DownloadScheduler(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Work item run in attempts; each attempt holds one permit.
+     */
+    interface Job {
+        /**
+         * Runs one attempt. Returns the delay in ms before the next attempt, or a negative value when the job is finished.
+         */
+        long runAttempt();
+    }
+
+    /**
+     * Opens a category whose tasks are submitted one by one (e.g. while its page is still being parsed).
+     */
+    Category open(String category, Runnable onDone) {
+        return new Category(category, onDone);
+    }
+
+    /**
+     * Tasks of one category; {@code onDone} runs after {@link #close()} and the last task.
+     */
+    final class Category {
+        private final String name;
+        private final Runnable onDone;
+        // +1 za "kategorie je ještě otevřená"
+        private final AtomicInteger remaining = new AtomicInteger(1);
+
+        private Category(String name, Runnable onDone) {
+            this.name = name;
+            this.onDone = onDone;
+        }
+
+        void submit(Runnable task) {
+            submit(() -> {
+                task.run();
+                return -1L;
+            });
+        }
+
+        void submit(Job job) {
+            remaining.incrementAndGet();
+            changeOutstanding(1);
+            enqueue(job);
+        }
+
+        private void enqueue(Job job) {
+            changeBacklog(1);
+            executor.submit(() -> {
+                DownloadMetrics metrics = DownloadMetrics.get();
+                long waitStart = System.nanoTime();
+                limiter.acquireUninterruptibly();
+                metrics.permitWait.record(System.nanoTime() - waitStart);
+                changeBacklog(-1);
+                metrics.inFlight.increment();
+                long retryInMs = -1L;
+                try {
+                    retryInMs = job.runAttempt();
+                } catch (Exception e) {
+                    log.error("Unexpected error in download task ({}).", name, e);
+                } finally {
+                    metrics.inFlight.decrement();
+                    limiter.release();
+                }
+                if (retryInMs >= 0) {
+                    // permit je vrácený, úloha se zařadí znovu až v čase dalšího pokusu
+                    retryTimer.schedule(() -> enqueue(job), retryInMs, TimeUnit.MILLISECONDS);
+                } else {
+                    taskDone();
+                    changeOutstanding(-1);
+                }
+            });
+        }
+
+        void close() {
+            taskDone();
+        }
+
+        private void taskDone() {
+            if (remaining.decrementAndGet() == 0) {
+                try {
+                    onDone.run();
+                } catch (Exception e) {
+                    log.error("Error while finishing category {}.", name, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks the producer until fewer than {@code threshold} tasks are waiting for a permit.
+     */
+    void awaitBacklogBelow(int threshold) throws InterruptedException {
+        lock.lock();
+        try {
+            while (backlog >= threshold) {
+                backlogChanged.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void changeOutstanding(int delta) {
+        lock.lock();
+        try {
+            outstanding += delta;
+            backlogChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void changeBacklog(int delta) {
+        lock.lock();
+        try {
+            backlog += delta;
+            backlogChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for all submitted tasks, including those still waiting for a retry.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            while (outstanding > 0) {
+                backlogChanged.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        executor.close();
+        retryTimer.shutdownNow();
+    }
+}
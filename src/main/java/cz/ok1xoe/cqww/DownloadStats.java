@@ -0,0 +1,25 @@
+package cz.ok1xoe.cqww;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one download run (category or targeted download).
+ */
+final class DownloadStats {
+    final AtomicInteger ok = new AtomicInteger(0);
+    final AtomicInteger failed = new AtomicInteger(0);
+    final AtomicInteger skipped = new AtomicInteger(0);
+    final AtomicInteger unchanged = new AtomicInteger(0);
+    final AtomicInteger verified = new AtomicInteger(0);
+    final AtomicLong totalBytes = new AtomicLong(0);
+    final AtomicLong wireBytes = new AtomicLong(0);
+
+    String summary() {
+        return "successful: " + ok.get() + " skipped: " + skipped.get() + " unchanged: " + unchanged.get()
+                + (verified.get() > 0 ? " verified: " + verified.get() : "")
+                + " failed: " + failed.get()
+                + " total: " + totalBytes.get() + "B"
+                + (wireBytes.get() != totalBytes.get() ? " (wire: " + wireBytes.get() + "B)" : "");
+    }
+}
@@ -0,0 +1,247 @@
+package cz.ok1xoe.cqww;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes a response body straight into the partial file: the client's buffers are copied (or inflated) once into
+ * pooled direct buffers, digested and written with a gathering {@link FileChannel#write(ByteBuffer[], int, int)}.
+ * No blocking stream, no heap copy per chunk. The body value is the number of bytes written.
+ * <p>
+ * Backpressure: one buffer list is requested at a time and the next one only after the previous is processed.
+ * When the byte rate limit is exceeded, the next demand is delayed instead of blocking the client's thread.
+ * <p>
+ * The file only grows by the bytes actually written, so its length is always the resume offset, also after the
+ * process was killed.
+ */
+final class FileBodySubscriber implements HttpResponse.BodySubscriber<Long>, ContentEncoding.Sink {
+
+    // 4 x 32 KB na jedno stažení, větší log se zapisuje po 128 KB
+    private static final int BATCH = 4;
+    private static final ScheduledExecutorService THROTTLE = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "body-throttle");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final FileChannel ch;
+    private final long offset;
+    private final MessageDigest sha;
+    private final ContentEncoding.Decoder decoder;
+    private final URI uri;
+    private final RateLimiter limiter;
+    private final DirectBufferPool pool = DirectBufferPool.shared();
+    private final ByteBuffer[] buffers = new ByteBuffer[BATCH];
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+    // onNext/onComplete běží na vlákně klienta, abort() na volajícím
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Flow.Subscription subscription;
+    private int cur;
+    private long position;
+    private long wire;
+    private boolean closed;
+
+    /**
+     * Opens the partial file for writing at {@code offset} (truncated when 0).
+     *
+     * @param sha     digest to update with the written bytes (already holding the first {@code offset} bytes)
+     * @param decoder decoder of an encoded body, null for identity
+     */
+    FileBodySubscriber(Path part, long offset, MessageDigest sha, ContentEncoding.Decoder decoder,
+                       URI uri, RateLimiter limiter) throws IOException {
+        this.ch = offset > 0
+                ? FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                : FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.offset = offset;
+        this.position = offset;
+        this.sha = sha;
+        this.decoder = decoder;
+        this.uri = uri;
+        this.limiter = limiter;
+        try {
+            ch.position(offset);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Body bytes received from the network (the compressed size for gzip/deflate).
+     */
+    long wireBytes() {
+        return wire;
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription s) {
+        lock.lock();
+        try {
+            if (closed) {
+                s.cancel();
+                return;
+            }
+            subscription = s;
+        } finally {
+            lock.unlock();
+        }
+        s.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        long n = 0;
+        lock.lock();
+        try {
+            if (closed) return;
+            for (int i = 0, k = items.size(); i < k; i++) {
+                ByteBuffer item = items.get(i);
+                n += item.remaining();
+                if (decoder != null) decoder.decode(item, this);
+                else copy(item);
+            }
+            wire += n;
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            fail(e);
+            return;
+        } finally {
+            lock.unlock();
+        }
+        // omezení rychlosti: další dávka se vyžádá až po odpracování dluhu, vlákno klienta se neblokuje
+        long wait = limiter.reserveBytes(uri, n);
+        if (wait > 0) THROTTLE.schedule(() -> subscription.request(1), wait, TimeUnit.NANOSECONDS);
+        else subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        lock.lock();
+        try {
+            if (!closed) fail(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        lock.lock();
+        try {
+            if (closed) return;
+            if (decoder != null) decoder.finish();
+            flush();
+            ch.close();
+            release();
+            result.complete(position - offset);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops writing when the caller gave up (e.g. interrupted {@code send}); keeps what was written.
+     */
+    void abort() {
+        lock.lock();
+        try {
+            if (closed) return;
+            if (subscription != null) subscription.cancel();
+            fail(new IOException("Transfer aborted for " + uri));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Current pooled buffer with space remaining; a full batch is written out first.
+     */
+    @Override
+    public ByteBuffer writable() throws IOException {
+        ByteBuffer b = buffer();
+        if (b.hasRemaining()) return b;
+        if (cur + 1 == BATCH) flush();
+        else cur++;
+        return buffer();
+    }
+
+    private ByteBuffer buffer() {
+        ByteBuffer b = buffers[cur];
+        return b != null ? b : (buffers[cur] = pool.acquire());
+    }
+
+    private void copy(ByteBuffer item) throws IOException {
+        while (item.hasRemaining()) {
+            ByteBuffer b = writable();
+            if (item.remaining() <= b.remaining()) {
+                b.put(item);
+            } else {
+                int limit = item.limit();
+                item.limit(item.position() + b.remaining());
+                b.put(item);
+                item.limit(limit);
+            }
+        }
+    }
+
+    /**
+     * Digests the filled buffers and writes them with one gathering write (repeated while partial).
+     */
+    private void flush() throws IOException {
+        int n = buffers[cur] != null ? cur + 1 : cur;
+        if (n == 0) return;
+        for (int i = 0; i < n; i++) {
+            ByteBuffer b = buffers[i].flip();
+            sha.update(b);
+            b.rewind();
+        }
+        ByteBuffer last = buffers[n - 1];
+        while (last.hasRemaining()) position += ch.write(buffers, 0, n);
+        for (int i = 0; i < n; i++) buffers[i].clear();
+        cur = 0;
+    }
+
+    private void fail(Throwable t) {
+        // zapsaná data zůstávají v .part, navázání pokračuje od jeho délky;
+        // nezapsaná dávka (nejvýš 128 KB) se při navázání stáhne znovu
+        try {
+            ch.close();
+        } catch (IOException e) {
+            t.addSuppressed(e);
+        }
+        release();
+        result.completeExceptionally(t);
+    }
+
+    private void release() {
+        closed = true;
+        if (decoder != null) decoder.close();
+        for (int i = 0; i < BATCH; i++) {
+            if (buffers[i] != null) pool.release(buffers[i]);
+            buffers[i] = null;
+        }
+    }
+}
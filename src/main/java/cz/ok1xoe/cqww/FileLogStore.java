@@ -0,0 +1,44 @@
+package cz.ok1xoe.cqww;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * One plain file per log in the category directory (original layout).
+ */
+final class FileLogStore implements LogStore {
+
+    private final Path dir;
+    private final SyncManifest manifest;
+
+    FileLogStore(Path dir, SyncManifest manifest) {
+        this.dir = dir;
+        this.manifest = manifest;
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return manifest != null ? manifest.exists(name) : Files.exists(dir.resolve(name));
+    }
+
+    @Override
+    public Path target(String name) {
+        return dir.resolve(name);
+    }
+
+    @Override
+    public Path stored(String name) {
+        return dir.resolve(name);
+    }
+
+    @Override
+    public boolean commit(String name, Path file, String sha256) {
+        // soubor už je na svém místě
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // nic
+    }
+}
@@ -0,0 +1,181 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stripes requests over several {@link HttpClient}s, i.e. several HTTP/2 connections per host.
+ * <p>
+ * Each request leases the least loaded connection; the pool has {@code ceil(maxConcurrent / streamsPerConnection)}
+ * slots, so no connection carries more than {@code streamsPerConnection} streams. A connection that received
+ * GOAWAY is replaced by a fresh client for new requests and closed once its running requests finish, so one
+ * reset no longer fails every transfer at once.
+ * <p>
+ * With HTTP/1.1 one client is enough: it keeps its own pool of keep-alive connections.
+ */
+@Slf4j
+final class HttpClientPool {
+
+    static final int DEFAULT_STREAMS_PER_CONNECTION = 16;
+
+    private final HttpClient.Version version;
+    private final Slot[] slots;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    HttpClientPool(HttpClient.Version version, int maxConcurrent, int streamsPerConnection) {
+        this.version = version;
+        int streams = Math.max(1, streamsPerConnection);
+        int size = version == HttpClient.Version.HTTP_1_1 ? 1 : Math.max(1, (maxConcurrent + streams - 1) / streams);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) slots[i] = new Slot(i);
+    }
+
+    int size() {
+        return slots.length;
+    }
+
+    HttpClient.Version version() {
+        return version;
+    }
+
+    /**
+     * Leases the least loaded connection; the caller closes the lease when the response is consumed.
+     */
+    Lease lease() {
+        while (true) {
+            Slot best = slots[0];
+            int bestActive = Integer.MAX_VALUE;
+            for (Slot s : slots) {
+                Conn c = s.current.get();
+                int active = c == null ? 0 : c.active.get();
+                if (active < bestActive) {
+                    best = s;
+                    bestActive = active;
+                    if (active == 0) break;
+                }
+            }
+            Conn conn = best.connection();
+            conn.active.incrementAndGet();
+            if (!conn.draining) return new Lease(best, conn);
+            // mezitím přišel GOAWAY -> vrátit a vybrat znovu
+            if (conn.active.decrementAndGet() == 0) conn.close();
+        }
+    }
+
+    /**
+     * Closes all clients once their running requests finish.
+     */
+    void shutdown() {
+        for (Slot s : slots) {
+            Conn c = s.current.getAndSet(null);
+            if (c != null) c.drain();
+        }
+    }
+
+    static boolean isGoAway(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String msg = t.getMessage();
+            if (msg != null && msg.toUpperCase(Locale.ROOT).contains("GOAWAY")) return true;
+        }
+        return false;
+    }
+
+    private HttpClient newClient() {
+        return HttpClient.newBuilder()
+                .version(version)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(20))
+                .build();
+    }
+
+    /**
+     * One request's use of a connection.
+     */
+    final class Lease implements AutoCloseable {
+        private final Slot slot;
+        private final Conn conn;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Slot slot, Conn conn) {
+            this.slot = slot;
+            this.conn = conn;
+        }
+
+        HttpClient client() {
+            return conn.client;
+        }
+
+        /**
+         * The connection was closed by GOAWAY: new requests go to a replacement, this one drains.
+         */
+        void goAway() {
+            slot.replace(conn);
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true) && conn.active.decrementAndGet() == 0 && conn.draining) {
+                conn.close();
+            }
+        }
+    }
+
+    private final class Slot {
+        private final int index;
+        private final AtomicReference<Conn> current = new AtomicReference<>();
+
+        private Slot(int index) {
+            this.index = index;
+        }
+
+        private Conn connection() {
+            Conn c = current.get();
+            while (c == null) {
+                // klient vzniká až při prvním použití (HTTP/1.1 a malé dávky potřebují jen jeden)
+                Conn fresh = new Conn(newClient(), generation.incrementAndGet());
+                if (current.compareAndSet(null, fresh)) return fresh;
+                fresh.close();
+                c = current.get();
+            }
+            return c;
+        }
+
+        private void replace(Conn old) {
+            if (current.compareAndSet(old, null)) {
+                DownloadMetrics.get().connectionsReplaced.increment();
+                log.info("GOAWAY on connection #{} (slot {}, {} requests in flight) - draining, new requests use a fresh connection",
+                        old.id, index, old.active.get());
+                old.drain();
+            }
+        }
+    }
+
+    private static final class Conn {
+        private final HttpClient client;
+        private final int id;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean draining;
+
+        private Conn(HttpClient client, int id) {
+            this.client = client;
+            this.id = id;
+        }
+
+        private void drain() {
+            draining = true;
+            if (active.get() == 0) close();
+        }
+
+        private void close() {
+            // shutdown() nechá doběhnout rozjeté výměny a pak uvolní selektor
+            if (closed.compareAndSet(false, true)) client.shutdown();
+        }
+    }
+}
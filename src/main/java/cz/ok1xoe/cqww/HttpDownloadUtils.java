@@ -4,43 +4,489 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serial;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Slf4j
 public final class HttpDownloadUtils {
-    private static final HttpClient CLIENT = HttpClient.newBuilder()
-            .followRedirects(HttpClient.Redirect.NORMAL)
-            .connectTimeout(Duration.ofSeconds(20))
-            .build();
+    private static volatile HttpClientPool clients =
+            new HttpClientPool(HttpClient.Version.HTTP_2, 100, HttpClientPool.DEFAULT_STREAMS_PER_CONNECTION);
+    private static volatile RateLimiter rateLimiter = RateLimiter.unlimited();
+    private static volatile boolean compression = true;
+
+    static final String PART_SUFFIX = ".part";
+    static final String META_SUFFIX = ".part.meta";
+    private static final long MAP_CHUNK = 64L << 20;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
 
     private HttpDownloadUtils() {}
 
+    /**
+     * Result of a (conditional) download. For 304 Not Modified no body is written.
+     * {@code bytes} is the final file size, {@code resumedFrom} the number of bytes reused from a partial file,
+     * {@code wireBytes} the body bytes received by this request (compressed size for gzip/deflate),
+     * {@code headerNanos} the time until response headers arrived, {@code sha256} the hex digest of the file
+     * (computed while streaming, null for 304).
+     */
+    public record Result(int status, long bytes, long resumedFrom, long wireBytes, String etag, String lastModified,
+                         long headerNanos, String sha256) {
+        public boolean notModified() {
+            return status == 304;
+        }
+    }
+
+    /**
+     * HTTP error status (4xx/5xx) returned by the server.
+     */
+    public static final class HttpStatusException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public HttpStatusException(int statusCode, URI uri) {
+            super("HTTP " + statusCode + " for " + uri);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Replaces the client pool (HTTP version, number of connections); the old clients close once idle.
+     */
+    static void configureClients(HttpClientPool pool) {
+        HttpClientPool old = clients;
+        clients = pool;
+        old.shutdown();
+    }
+
+    /**
+     * Sets the per-host request and byte rate limits.
+     */
+    static void configureRateLimits(RateLimiter limiter) {
+        rateLimiter = limiter;
+    }
+
+    /**
+     * Enables Accept-Encoding (gzip, deflate) for log bodies and pages.
+     */
+    static void configureCompression(boolean enabled) {
+        compression = enabled;
+    }
+
     public static long downloadToFile(URI uri, Path out, Duration timeout)
             throws IOException, InterruptedException, HttpTimeoutException {
-        HttpRequest req = HttpRequest.newBuilder()
+        return downloadIfModified(uri, out, timeout, null, null).bytes();
+    }
+
+    /**
+     * Conditional GET - sends If-None-Match / If-Modified-Since when validators are known.
+     * The body is written to {@code out.part} and atomically renamed to {@code out} once complete.
+     * An existing partial file is resumed with a Range request (guarded by If-Range).
+     * A full request accepts gzip/deflate and decodes while streaming; a resumed one asks for the identity
+     * encoding, because the partial file always holds decoded bytes.
+     */
+    public static Result downloadIfModified(URI uri, Path out, Duration timeout, String etag, String lastModified)
+            throws IOException, InterruptedException, HttpTimeoutException {
+        Path part = out.resolveSibling(out.getFileName() + PART_SUFFIX);
+        Path meta = out.resolveSibling(out.getFileName() + META_SUFFIX);
+
+        long offset = 0L;
+        String ifRange = null;
+        if (Files.exists(part)) {
+            ifRange = readPartValidator(meta);
+            offset = Files.size(part);
+            if (ifRange == null || offset == 0L) {
+                // bez validátoru nelze bezpečně navázat
+                offset = 0L;
+                ifRange = null;
+            }
+        }
+
+        HttpRequest.Builder rb = HttpRequest.newBuilder()
                 .uri(uri)
                 .GET()
                 .header("User-Agent", "CQWW-Log-Downloader/1.3 (+Java 21 Virtual Threads; SpringBoot)")
-                .timeout(timeout)
-                .build();
+                .timeout(timeout);
+        if (etag != null) rb.header("If-None-Match", etag);
+        if (lastModified != null) rb.header("If-Modified-Since", lastModified);
+        if (offset > 0) {
+            rb.header("Range", "bytes=" + offset + "-");
+            rb.header("If-Range", ifRange);
+        } else if (compression) {
+            rb.header("Accept-Encoding", ContentEncoding.ACCEPT);
+        }
+
+        rateLimiter.acquireRequest(uri);
+        HttpClientPool.Lease lease = clients.lease();
+        try {
+            return download(lease.client(), rb.build(), uri, out, part, meta, offset, etag, lastModified);
+        } catch (IOException e) {
+            if (HttpClientPool.isGoAway(e)) lease.goAway();
+            throw e;
+        } finally {
+            lease.close();
+        }
+    }
 
-        HttpResponse<InputStream> resp = CLIENT.send(req, HttpResponse.BodyHandlers.ofInputStream());
+    private static Result download(HttpClient client, HttpRequest request, URI uri, Path out, Path part, Path meta,
+                                   long offset, String etag, String lastModified) throws IOException, InterruptedException {
+        Transfer transfer = new Transfer(uri, part, meta, offset);
+        HttpResponse<Long> resp;
+        try {
+            resp = client.send(request, transfer);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            transfer.abort();
+            throw e;
+        }
+        if (transfer.failure != null) throw transfer.failure;
 
         int code = resp.statusCode();
+        HttpHeaders headers = resp.headers();
+        String respEtag = headers.firstValue("ETag").orElse(null);
+        String respLastModified = headers.firstValue("Last-Modified").orElse(null);
+
+        if (code == 304) {
+            deletePartial(part, meta);
+            return new Result(code, 0L, 0L, 0L, respEtag != null ? respEtag : etag,
+                    respLastModified != null ? respLastModified : lastModified, transfer.headerNanos, null);
+        }
+        if (code == 416) {
+            // částečný soubor neodpovídá serveru -> další pokus začne od nuly
+            deletePartial(part, meta);
+            throw new IOException("HTTP 416 (partial file discarded) for " + uri);
+        }
         if (code >= 400) {
-            throw new IOException("HTTP " + code + " for " + uri);
+            throw new HttpStatusException(code, uri);
+        }
+
+        long size = transfer.offset + resp.body();
+        long wire = transfer.subscriber.wireBytes();
+        long received = transfer.encoding != null ? wire : size;
+        if (transfer.expectedTotal >= 0 && received != transfer.expectedTotal) {
+            // .part zůstává, další pokus naváže
+            throw new IOException("Incomplete transfer (" + received + "/" + transfer.expectedTotal + " B) for " + uri);
+        }
+
+        commitPart(part, out);
+        Files.deleteIfExists(meta);
+        return new Result(code, size, transfer.offset, wire, respEtag, respLastModified, transfer.headerNanos,
+                HexFormat.of().formatHex(transfer.sha.digest()));
+    }
+
+    /**
+     * Body handler of a log download: checks the status and range once the headers arrive and writes the body
+     * through a {@link FileBodySubscriber}. Bodies of other responses are not read; a rejected response is
+     * reported through {@code failure} after {@code send} returns.
+     */
+    private static final class Transfer implements HttpResponse.BodyHandler<Long> {
+        private final URI uri;
+        private final Path part;
+        private final Path meta;
+        private final long start = System.nanoTime();
+        private final MessageDigest sha = sha256();
+
+        private long offset;
+        private long headerNanos;
+        private String encoding;
+        private long expectedTotal;
+        private FileBodySubscriber subscriber;
+        private IOException failure;
+
+        private Transfer(URI uri, Path part, Path meta, long offset) {
+            this.uri = uri;
+            this.part = part;
+            this.meta = meta;
+            this.offset = offset;
+        }
+
+        @Override
+        public HttpResponse.BodySubscriber<Long> apply(HttpResponse.ResponseInfo info) {
+            headerNanos = System.nanoTime() - start;
+            int code = info.statusCode();
+            if (code == 304 || code >= 400) return discard();
+            try {
+                subscriber = open(code, info.headers());
+                return subscriber;
+            } catch (IOException e) {
+                failure = e;
+                return cancel();
+            }
+        }
+
+        private FileBodySubscriber open(int code, HttpHeaders headers) throws IOException {
+            encoding = ContentEncoding.of(headers);
+            if (code == 206 && encoding != null) {
+                // rozsah se žádá jen bez Accept-Encoding, zakódovaný úsek nelze navázat na dekódovaný začátek
+                deletePartial(part, meta);
+                throw new IOException("Encoded partial content (" + encoding + ") for " + uri);
+            } else if (code == 206) {
+                String cr = headers.firstValue("Content-Range").orElse("");
+                Matcher m = CONTENT_RANGE.matcher(cr);
+                if (!m.matches() || Long.parseLong(m.group(1)) != offset) {
+                    deletePartial(part, meta);
+                    throw new IOException("Unexpected Content-Range '" + cr + "' for " + uri);
+                }
+                expectedTotal = m.group(3).equals("*") ? -1L : Long.parseLong(m.group(3));
+                // navázaný přenos: digest musí zahrnout i už stažený začátek
+                digest(part, offset, sha);
+                log.debug("Resuming {} from byte {}", uri, offset);
+            } else {
+                // u zakódovaného těla je Content-Length velikost na drátě
+                expectedTotal = headers.firstValueAsLong("Content-Length").orElse(-1L);
+                offset = 0L;
+                // ETag zakódované varianty neplatí pro Range na identitu, navazuje se podle Last-Modified
+                writePartValidator(meta, encoding == null ? headers.firstValue("ETag").orElse(null) : null,
+                        headers.firstValue("Last-Modified").orElse(null));
+            }
+            ContentEncoding.Decoder decoder = ContentEncoding.decoder(encoding, uri);
+            try {
+                return new FileBodySubscriber(part, offset, sha, decoder, uri, rateLimiter);
+            } catch (IOException e) {
+                if (decoder != null) decoder.close();
+                throw e;
+            }
+        }
+
+        private void abort() {
+            if (subscriber != null) subscriber.abort();
+        }
+
+        /**
+         * Reads and drops a short body (304, error page), the connection stays usable.
+         */
+        private static HttpResponse.BodySubscriber<Long> discard() {
+            return HttpResponse.BodySubscribers.replacing(-1L);
+        }
+
+        /**
+         * Cancels a rejected body right away (like closing an unread stream), the value is -1.
+         */
+        private static HttpResponse.BodySubscriber<Long> cancel() {
+            return new HttpResponse.BodySubscriber<>() {
+                @Override
+                public CompletionStage<Long> getBody() {
+                    return CompletableFuture.completedFuture(-1L);
+                }
+
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    s.cancel();
+                }
+
+                @Override
+                public void onNext(List<ByteBuffer> items) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            };
+        }
+    }
+
+    /**
+     * Atomic rename of the complete partial file to its final name.
+     */
+    static void commitPart(Path part, Path out) throws IOException {
+        try {
+            Files.move(part, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, out, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Size and validators of a remote log (HEAD). {@code contentLength} is -1 when not sent or when it is the size
+     * of an encoded variant; {@code status} 405 / 501 means the server does not answer HEAD requests.
+     */
+    public record Head(int status, long contentLength, String etag, String lastModified, long headerNanos) {
+        public boolean supported() {
+            return status != 405 && status != 501;
+        }
+    }
+
+    /**
+     * HEAD request for a log, no body is transferred. Other status codes >= 400 are thrown as
+     * {@link HttpStatusException}.
+     */
+    public static Head head(URI uri, Duration timeout) throws IOException, InterruptedException {
+        HttpRequest.Builder rb = HttpRequest.newBuilder()
+                .uri(uri)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .header("User-Agent", "CQWW-Log-Downloader/1.3 (+Java 21 Virtual Threads; SpringBoot)")
+                .timeout(timeout);
+        // stejná varianta jako při stahování -> ETag se dá porovnat s manifestem
+        if (compression) rb.header("Accept-Encoding", ContentEncoding.ACCEPT);
+        HttpRequest request = rb.build();
+
+        rateLimiter.acquireRequest(uri);
+        HttpResponse<Void> resp;
+        long start = System.nanoTime();
+        try (HttpClientPool.Lease lease = clients.lease()) {
+            try {
+                resp = lease.client().send(request, HttpResponse.BodyHandlers.discarding());
+            } catch (IOException e) {
+                if (HttpClientPool.isGoAway(e)) lease.goAway();
+                throw e;
+            }
+        }
+        int code = resp.statusCode();
+        if (code >= 400 && code != 405 && code != 501) throw new HttpStatusException(code, uri);
+        HttpHeaders headers = resp.headers();
+        long length = ContentEncoding.of(headers) == null ? headers.firstValueAsLong("Content-Length").orElse(-1L) : -1L;
+        return new Head(code, length,
+                headers.firstValue("ETag").orElse(null), headers.firstValue("Last-Modified").orElse(null),
+                System.nanoTime() - start);
+    }
+
+    /**
+     * SHA-256 (hex) of a local file, read through a memory mapping.
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest sha = sha256();
+        digest(file, Long.MAX_VALUE, sha);
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    /**
+     * Feeds the first {@code length} bytes of a file (at most its size) into {@code sha}.
+     */
+    private static void digest(Path file, long length, MessageDigest sha) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(length, ch.size());
+            // po kusech: mapování je omezené na 2 GB a menší okna nezahltí adresní prostor
+            for (long pos = 0; pos < size; pos += MAP_CHUNK) {
+                sha.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_CHUNK, size - pos)));
+            }
         }
+    }
+
+    /**
+     * Opens an HTML listing page, optionally conditional. The caller reads it through {@link #body(HttpResponse)}
+     * and closes it. Status codes >= 400 are thrown as {@link HttpStatusException}.
+     */
+    public static HttpResponse<InputStream> openPage(URI uri, Duration timeout, String etag, String lastModified)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder rb = HttpRequest.newBuilder()
+                .uri(uri)
+                .GET()
+                .header("User-Agent", "CQWW-Log-Downloader/1.3 (+Java 21 Virtual Threads; SpringBoot)")
+                .timeout(timeout);
+        if (etag != null) rb.header("If-None-Match", etag);
+        if (lastModified != null) rb.header("If-Modified-Since", lastModified);
+        if (compression) rb.header("Accept-Encoding", ContentEncoding.ACCEPT);
 
-        try (InputStream in = resp.body()) {
-            long bytes = Files.copy(in, out, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            return bytes;
+        rateLimiter.acquireRequest(uri);
+        HttpResponse<InputStream> resp;
+        // stránky jsou malé, spojení se uvolní už po hlavičkách
+        try (HttpClientPool.Lease lease = clients.lease()) {
+            try {
+                resp = lease.client().send(rb.build(), HttpResponse.BodyHandlers.ofInputStream());
+            } catch (IOException e) {
+                if (HttpClientPool.isGoAway(e)) lease.goAway();
+                throw e;
+            }
+        }
+        if (resp.statusCode() >= 400) {
+            resp.body().close();
+            throw new HttpStatusException(resp.statusCode(), uri);
         }
+        return resp;
+    }
+
+    /**
+     * Decoded body of a page opened by {@link #openPage}.
+     */
+    static InputStream body(HttpResponse<InputStream> resp) throws IOException {
+        return ContentEncoding.decode(resp.body(), ContentEncoding.of(resp.headers()), resp.uri());
+    }
+
+    /**
+     * Charset parameter of the {@code Content-Type} header, null when there is none or it is not supported.
+     */
+    static Charset charset(HttpHeaders headers) {
+        String type = headers.firstValue("Content-Type").orElse(null);
+        if (type == null) return null;
+        for (String param : type.split(";")) {
+            int eq = param.indexOf('=');
+            if (eq < 0 || !param.substring(0, eq).trim().equalsIgnoreCase("charset")) continue;
+            String name = param.substring(eq + 1).trim();
+            if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+                name = name.substring(1, name.length() - 1);
+            }
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+                log.debug("Unsupported charset in Content-Type: {}", type);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Validator usable in If-Range: strong ETag, otherwise Last-Modified.
+     */
+    private static String readPartValidator(Path meta) {
+        try {
+            List<String> lines = Files.readAllLines(meta, StandardCharsets.UTF_8);
+            String etag = lines.size() > 0 ? lines.get(0) : "";
+            String lm = lines.size() > 1 ? lines.get(1) : "";
+            if (!etag.isBlank() && !etag.startsWith("W/")) return etag;
+            if (!lm.isBlank()) return lm;
+        } catch (IOException e) {
+            // meta chybí -> nelze navázat
+        }
+        return null;
+    }
+
+    private static void writePartValidator(Path meta, String etag, String lastModified) throws IOException {
+        Files.writeString(meta, (etag != null ? etag : "") + "\n" + (lastModified != null ? lastModified : "") + "\n",
+                StandardCharsets.UTF_8);
+    }
+
+    private static void deletePartial(Path part, Path meta) throws IOException {
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(meta);
     }
 }
@@ -0,0 +1,29 @@
+package cz.ok1xoe.cqww;
+
+import org.springframework.boot.SpringApplication;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of the jar. {@code --fast} runs the downloader without the Spring Boot bootstrap
+ * (no component scan, no auto-configuration), which matters for short single-call lookups.
+ * <p>
+ * No logger here: Logback must not initialize before the configuration file is chosen.
+ */
+public final class Launcher {
+
+    private Launcher() {
+    }
+
+    public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--fast")) {
+            // bez Springu načte logback-spring.xml přímo Logback
+            if (System.getProperty("logback.configurationFile") == null) {
+                System.setProperty("logback.configurationFile", "logback-spring.xml");
+            }
+            CqwwLogDownloaderApplication.runFast(args);
+        } else {
+            SpringApplication.run(CqwwLogDownloaderApplication.class, args);
+        }
+    }
+}
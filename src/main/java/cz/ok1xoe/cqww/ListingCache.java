@@ -0,0 +1,314 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of extracted page listings (year links, .log links).
+ * <p>
+ * One gzip text file per page URL: header (url, fetch time, ETag, Last-Modified) followed by one link per line.
+ * Fresh entries (younger than TTL) are returned without any request, stale ones are revalidated
+ * with a conditional GET. Least recently used entries are evicted above {@code maxEntries}.
+ * <p>
+ * A long-running process (--watch) also keeps the entries in memory ({@link #withMemory()}, bounded by the same
+ * LRU limit), so a page is revalidated without reading its file again; {@link #inMemory()} keeps the validators
+ * without any files.
+ */
+@Slf4j
+final class ListingCache {
+
+    private static final String MAGIC = "#cqww-listing v1";
+    private static final Duration PAGE_TIMEOUT = Duration.ofSeconds(20);
+
+    /**
+     * Extracts links from a page body (HTML), resolved against {@code baseUrl}, into {@code sink};
+     * {@code charset} comes from the {@code Content-Type} header, null when the response has none.
+     */
+    @FunctionalInterface
+    interface LinkExtractor {
+        void extract(InputStream body, Charset charset, String baseUrl, Consumer<String> sink) throws IOException;
+    }
+
+    private record Entry(long fetchedAt, String etag, String lastModified, List<String> links) {
+    }
+
+    private final Path dir;
+    private final int maxEntries;
+    private final Map<String, Entry> memory;
+
+    ListingCache(Path dir, int maxEntries) {
+        this(dir, maxEntries, false);
+    }
+
+    private ListingCache(Path dir, int maxEntries, boolean memory) {
+        this.dir = dir;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.memory = memory ? lru(dir != null ? this.maxEntries : Integer.MAX_VALUE) : null;
+    }
+
+    static ListingCache disabled() {
+        return new ListingCache(null, 1, false);
+    }
+
+    /**
+     * Validators and links only in memory (no cache directory).
+     */
+    static ListingCache inMemory() {
+        return new ListingCache(null, 1, true);
+    }
+
+    /**
+     * This cache with entries also kept in memory (for --watch).
+     */
+    ListingCache withMemory() {
+        return memory != null ? this : new ListingCache(dir, maxEntries, true);
+    }
+
+    boolean isEnabled() {
+        return dir != null || memory != null;
+    }
+
+    /**
+     * Returns the links of {@code url}, from cache when fresh, otherwise revalidated or downloaded and parsed.
+     */
+    List<String> get(String url, Duration ttl, LinkExtractor extractor) throws IOException, InterruptedException {
+        return get(url, ttl, extractor, link -> { }, true);
+    }
+
+    /**
+     * Passes every link of {@code url} to {@code onLink} as soon as it is known (while a page is still being
+     * downloaded). With the cache disabled the links are not collected at all. After a failed revalidation
+     * the cached links are passed again, so the consumer has to tolerate duplicates.
+     */
+    void stream(String url, Duration ttl, LinkExtractor extractor, Consumer<String> onLink)
+            throws IOException, InterruptedException {
+        get(url, ttl, extractor, onLink, false);
+    }
+
+    private List<String> get(String url, Duration ttl, LinkExtractor extractor, Consumer<String> onLink,
+                             boolean collect) throws IOException, InterruptedException {
+        if (!isEnabled()) {
+            return fetch(url, null, extractor, onLink, collect).links();
+        }
+
+        Path file = dir != null ? dir.resolve(key(url) + ".lst.gz") : null;
+        Entry cached = memory != null ? memory.get(url) : null;
+        if (cached == null && file != null) cached = read(file, url);
+        long now = System.currentTimeMillis();
+
+        if (cached != null && now - cached.fetchedAt() < ttl.toMillis()) {
+            log.debug("Listing cache hit: {}", url);
+            if (file != null) touch(file);
+            cached.links().forEach(onLink);
+            return cached.links();
+        }
+
+        Entry fresh;
+        try {
+            fresh = fetch(url, cached, extractor, onLink, true);
+        } catch (IOException e) {
+            if (cached == null) throw e;
+            log.warn("Cannot revalidate listing {} ({}), using cached copy.", url, e.getMessage());
+            cached.links().forEach(onLink);
+            return cached.links();
+        }
+        if (memory != null) memory.put(url, fresh);
+        if (file != null) {
+            write(file, url, fresh);
+            evict();
+        }
+        return fresh.links();
+    }
+
+    /**
+     * Downloads (or revalidates) a page; without {@code collect} the links only go to {@code onLink}
+     * and the entry gets an empty link list.
+     */
+    private Entry fetch(String url, Entry cached, LinkExtractor extractor, Consumer<String> onLink, boolean collect)
+            throws IOException, InterruptedException {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (java.net.URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid URL: " + url, e);
+        }
+
+        HttpResponse<InputStream> resp = HttpDownloadUtils.openPage(uri, PAGE_TIMEOUT,
+                cached != null ? cached.etag() : null, cached != null ? cached.lastModified() : null);
+        long now = System.currentTimeMillis();
+        String etag = resp.headers().firstValue("ETag").orElse(null);
+        String lastModified = resp.headers().firstValue("Last-Modified").orElse(null);
+
+        if (resp.statusCode() == 304 && cached != null) {
+            resp.body().close();
+            log.debug("Listing not modified: {}", url);
+            cached.links().forEach(onLink);
+            return new Entry(now, etag != null ? etag : cached.etag(),
+                    lastModified != null ? lastModified : cached.lastModified(), cached.links());
+        }
+
+        Charset charset = HttpDownloadUtils.charset(resp.headers());
+        if (!collect) {
+            // bez cache se odkazy jen předávají, paměť nezávisí na velikosti stránky
+            try (InputStream in = HttpDownloadUtils.body(resp)) {
+                extractor.extract(in, charset, url, onLink);
+            }
+            return new Entry(now, etag, lastModified, List.of());
+        }
+        List<String> links = new ArrayList<>();
+        try (InputStream in = HttpDownloadUtils.body(resp)) {
+            extractor.extract(in, charset, url, link -> {
+                links.add(link);
+                onLink.accept(link);
+            });
+        }
+        return new Entry(now, etag, lastModified, List.copyOf(links));
+    }
+
+    private Entry read(Path file, String url) {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            if (!MAGIC.equals(r.readLine()) || !url.equals(r.readLine())) return null;
+            long fetchedAt = Long.parseLong(r.readLine());
+            String etag = nullIfDash(r.readLine());
+            String lastModified = nullIfDash(r.readLine());
+            List<String> links = new ArrayList<>();
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!line.isEmpty()) links.add(line);
+            }
+            return new Entry(fetchedAt, etag, lastModified, List.copyOf(links));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Ignoring unreadable cache entry {} ({})", file, e.toString());
+            return null;
+        }
+    }
+
+    private void write(Path file, String url, Entry entry) {
+        Path tmp = file.resolveSibling(file.getFileName() + "." + Thread.currentThread().threadId() + ".tmp");
+        try {
+            Files.createDirectories(dir);
+            try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8))) {
+                w.write(MAGIC + "\n" + url + "\n" + entry.fetchedAt() + "\n"
+                        + dashIfNull(entry.etag()) + "\n" + dashIfNull(entry.lastModified()) + "\n");
+                for (String link : entry.links()) {
+                    w.write(link);
+                    w.write('\n');
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write listing cache {} ({})", file, e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // nic
+            }
+        }
+    }
+
+    private void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Cannot touch cache entry {}", file);
+        }
+    }
+
+    /**
+     * LRU eviction by file modification time.
+     */
+    private void evict() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.lst.gz")) {
+            ds.forEach(files::add);
+        } catch (IOException e) {
+            return;
+        }
+        if (files.size() <= maxEntries) return;
+
+        files.sort(Comparator.comparingLong(ListingCache::mtime));
+        for (Path p : files.subList(0, files.size() - maxEntries)) {
+            try {
+                Files.deleteIfExists(p);
+                log.debug("Evicted listing cache entry {}", p.getFileName());
+            } catch (IOException e) {
+                log.debug("Cannot evict {}", p);
+            }
+        }
+    }
+
+    /**
+     * Access-ordered map dropping the least recently used entry above {@code max}.
+     */
+    private static Map<String, Entry> lru(int max) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > max;
+            }
+        });
+    }
+
+    private static long mtime(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(d);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String nullIfDash(String s) {
+        return (s == null || s.isEmpty() || s.equals("-")) ? null : s;
+    }
+
+    private static String dashIfNull(String s) {
+        return (s == null || s.isEmpty()) ? "-" : s;
+    }
+}
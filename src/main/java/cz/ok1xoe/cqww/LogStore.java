@@ -0,0 +1,63 @@
+package cz.ok1xoe.cqww;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Destination of downloaded logs of one directory (category).
+ * <p>
+ * A log is downloaded to {@link #target(String)} and handed over with {@link #commit(String, Path, String)}.
+ * The plain file store keeps the downloaded file as it is, archive stores move it into the archive.
+ */
+interface LogStore extends AutoCloseable {
+
+    /**
+     * True if a log of this name is already stored (no request is made).
+     */
+    boolean exists(String name);
+
+    /**
+     * File the log is downloaded to (its .part file is used for resuming).
+     */
+    Path target(String name);
+
+    /**
+     * Path of the stored log {@code name} for verification (size, mtime); an archive entry is a path of the
+     * archive's file system.
+     */
+    Path stored(String name);
+
+    /**
+     * SHA-256 (hex) of the stored log {@code name}, read back from the store.
+     */
+    default String sha256(String name) throws IOException {
+        return HttpDownloadUtils.sha256(stored(name));
+    }
+
+    /**
+     * Makes a completely downloaded {@code file} (content digest {@code sha256}) the stored log {@code name}.
+     *
+     * @return false if {@code name} already held exactly this content (nothing was written)
+     */
+    boolean commit(String name, Path file, String sha256) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * @param kind     "files", "zip" or "cas"
+     * @param manifest directory listing used for existence checks of plain files (may be null)
+     */
+    static LogStore open(String kind, Path dir, SyncManifest manifest) throws IOException {
+        return switch (kind) {
+            case "files" -> new FileLogStore(dir, manifest);
+            case "zip" -> new ZipLogStore(dir);
+            case "cas" -> new CasLogStore(dir, manifest);
+            default -> throw new IllegalArgumentException("Unknown store: " + kind);
+        };
+    }
+
+    static boolean isValidKind(String kind) {
+        return kind.equals("files") || kind.equals("zip") || kind.equals("cas");
+    }
+}
@@ -0,0 +1,215 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@link DownloadMetrics} periodically and at exit into a file, as Prometheus text format
+ * (e.g. for the node_exporter textfile collector) or JSON ({@code .json} extension).
+ */
+@Slf4j
+final class MetricsExporter implements AutoCloseable {
+
+    private final DownloadMetrics metrics;
+    private final Path file;
+    private final boolean json;
+    private final ScheduledExecutorService timer;
+
+    // pro výpočet průtoku od posledního exportu (jen vlákno exportu)
+    private long lastBytes;
+    private long lastNanos;
+
+    MetricsExporter(DownloadMetrics metrics, Path file, Duration interval) {
+        this.metrics = metrics;
+        this.file = file;
+        this.json = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        this.lastNanos = metrics.startNanos;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-export");
+            t.setDaemon(true);
+            return t;
+        });
+        long ms = Math.max(1000L, interval.toMillis());
+        timer.scheduleAtFixedRate(this::write, ms, ms, TimeUnit.MILLISECONDS);
+        log.info("Metrics export: {} every {}s ({})", file, ms / 1000, json ? "json" : "prometheus");
+    }
+
+    /**
+     * Stops the periodic export and writes the final snapshot.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        try {
+            timer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write();
+        log.info("Metrics written to {}", file);
+    }
+
+    private synchronized void write() {
+        long now = System.nanoTime();
+        long bytes = metrics.bytes.sum();
+        double rate = now > lastNanos ? (bytes - lastBytes) / ((now - lastNanos) / 1e9) : 0.0;
+        lastBytes = bytes;
+        lastNanos = now;
+
+        String body = json ? json(now, rate) : prometheus(now, rate);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmp, body, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write metrics {} ({})", file, e.getMessage());
+        }
+    }
+
+    String prometheus(long now, double rate) {
+        DownloadMetrics m = metrics;
+        StringBuilder sb = new StringBuilder(4096);
+        gauge(sb, "cqww_uptime_seconds", "Seconds since start.", (now - m.startNanos) / 1e9);
+        counter(sb, "cqww_requests_total", "HTTP requests for logs (attempts).", m.requests.sum());
+        counter(sb, "cqww_retries_total", "Repeated download attempts.", m.retries.sum());
+        counter(sb, "cqww_bytes_total", "Log bytes received (decoded, as stored).", m.bytes.sum());
+        counter(sb, "cqww_wire_bytes_total", "Log body bytes on the wire (compressed when gzip/deflate).", m.wireBytes.sum());
+        gauge(sb, "cqww_throughput_bytes_per_second", "Bytes per second since the previous export.", rate);
+        gauge(sb, "cqww_in_flight", "Downloads currently running.", m.inFlight.sum());
+        counter(sb, "cqww_connections_replaced_total", "HTTP/2 connections replaced after GOAWAY.", m.connectionsReplaced.sum());
+
+        sb.append("# HELP cqww_files_total Finished logs by result.\n# TYPE cqww_files_total counter\n");
+        fileLine(sb, "ok", m.filesOk.sum());
+        fileLine(sb, "skipped", m.filesSkipped.sum());
+        fileLine(sb, "not_modified", m.filesNotModified.sum());
+        fileLine(sb, "unchanged", m.filesUnchanged.sum());
+        fileLine(sb, "verified", m.filesVerified.sum());
+        fileLine(sb, "failed", m.filesFailed.sum());
+
+        sb.append("# HELP cqww_errors_total Failed attempts by cause.\n# TYPE cqww_errors_total counter\n");
+        for (Map.Entry<String, Long> e : m.errors().entrySet()) {
+            sb.append("cqww_errors_total{cause=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+        }
+
+        histogram(sb, "cqww_ttfb_seconds", "Time to response headers.", m.ttfb, "");
+        histogram(sb, "cqww_download_seconds", "Duration of one download attempt.", m.duration, "");
+        histogram(sb, "cqww_permit_wait_seconds", "Wait for a concurrency permit.", m.permitWait, "");
+
+        boolean first = true;
+        for (Map.Entry<String, DownloadMetrics.Histogram> e : m.pageLoad().entrySet()) {
+            String name = "cqww_page_load_seconds";
+            if (first) {
+                sb.append("# HELP ").append(name).append(" Load and parse time of listing pages.\n");
+                sb.append("# TYPE ").append(name).append(" histogram\n");
+                first = false;
+            }
+            histogramLines(sb, name, e.getValue(), "category=\"" + e.getKey() + "\",");
+        }
+        return sb.toString();
+    }
+
+    String json(long now, double rate) {
+        DownloadMetrics m = metrics;
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\n");
+        sb.append("  \"uptimeSeconds\": ").append(num((now - m.startNanos) / 1e9)).append(",\n");
+        sb.append("  \"requests\": ").append(m.requests.sum()).append(",\n");
+        sb.append("  \"retries\": ").append(m.retries.sum()).append(",\n");
+        sb.append("  \"bytes\": ").append(m.bytes.sum()).append(",\n");
+        sb.append("  \"wireBytes\": ").append(m.wireBytes.sum()).append(",\n");
+        sb.append("  \"bytesPerSecond\": ").append(num(rate)).append(",\n");
+        sb.append("  \"inFlight\": ").append(m.inFlight.sum()).append(",\n");
+        sb.append("  \"connectionsReplaced\": ").append(m.connectionsReplaced.sum()).append(",\n");
+        sb.append("  \"files\": {\"ok\": ").append(m.filesOk.sum())
+                .append(", \"skipped\": ").append(m.filesSkipped.sum())
+                .append(", \"notModified\": ").append(m.filesNotModified.sum())
+                .append(", \"unchanged\": ").append(m.filesUnchanged.sum())
+                .append(", \"verified\": ").append(m.filesVerified.sum())
+                .append(", \"failed\": ").append(m.filesFailed.sum()).append("},\n");
+        sb.append("  \"errors\": {");
+        String sep = "";
+        for (Map.Entry<String, Long> e : m.errors().entrySet()) {
+            sb.append(sep).append('"').append(e.getKey()).append("\": ").append(e.getValue());
+            sep = ", ";
+        }
+        sb.append("},\n");
+        sb.append("  \"ttfb\": ").append(summary(m.ttfb)).append(",\n");
+        sb.append("  \"download\": ").append(summary(m.duration)).append(",\n");
+        sb.append("  \"permitWait\": ").append(summary(m.permitWait)).append(",\n");
+        sb.append("  \"pageLoad\": {");
+        sep = "\n";
+        for (Map.Entry<String, DownloadMetrics.Histogram> e : m.pageLoad().entrySet()) {
+            sb.append(sep).append("    \"").append(e.getKey().replace("\"", "\\\"")).append("\": ").append(summary(e.getValue()));
+            sep = ",\n";
+        }
+        sb.append(m.pageLoad().isEmpty() ? "}\n" : "\n  }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String summary(DownloadMetrics.Histogram h) {
+        long[] buckets = h.snapshot();
+        return "{\"count\": " + DownloadMetrics.Histogram.count(buckets) + ", \"sumSeconds\": " + num(h.sumSeconds())
+                + ", \"p50\": " + num(DownloadMetrics.Histogram.quantileSeconds(buckets, 0.5))
+                + ", \"p90\": " + num(DownloadMetrics.Histogram.quantileSeconds(buckets, 0.9))
+                + ", \"p99\": " + num(DownloadMetrics.Histogram.quantileSeconds(buckets, 0.99)) + "}";
+    }
+
+    private static void fileLine(StringBuilder sb, String result, long value) {
+        sb.append("cqww_files_total{result=\"").append(result).append("\"} ").append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(num(value)).append('\n');
+    }
+
+    private static void histogram(StringBuilder sb, String name, String help, DownloadMetrics.Histogram h, String labels) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        histogramLines(sb, name, h, labels);
+    }
+
+    private static void histogramLines(StringBuilder sb, String name, DownloadMetrics.Histogram h, String labels) {
+        // jeden snímek: kumulativní buckety ani +Inf/_count se nesmí rozejít
+        long[] buckets = h.snapshot();
+        long total = DownloadMetrics.Histogram.count(buckets);
+        long cumulative = 0;
+        for (int i = 0; i < DownloadMetrics.Histogram.BUCKETS; i++) {
+            cumulative += buckets[i];
+            sb.append(name).append("_bucket{").append(labels).append("le=\"")
+                    .append(num(DownloadMetrics.Histogram.upperBoundSeconds(i))).append("\"} ").append(cumulative).append('\n');
+        }
+        sb.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(total).append('\n');
+        String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        sb.append(name).append("_sum").append(plain).append(' ').append(num(h.sumSeconds())).append('\n');
+        sb.append(name).append("_count").append(plain).append(' ').append(total).append('\n');
+    }
+
+    private static String num(double v) {
+        return String.format(Locale.ROOT, "%.6f", v);
+    }
+}
@@ -0,0 +1,225 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Aggregated download progress.
+ * <p>
+ * Download threads only append events to a lock-free queue. One reporter thread drains it at a fixed rate,
+ * writes the per-file details through this class' logger (routed to the asynchronous file appender only) and
+ * renders one progress line with files/s, MB/s and ETA. The download loop never waits for console I/O.
+ */
+@Slf4j
+final class ProgressReporter implements AutoCloseable {
+
+    enum Mode {
+        /** One aggregated progress line. */
+        BAR,
+        /** Additionally one console line per file (rendered by the reporter thread). */
+        FILES,
+        /** No progress on the console, per-file details only in the log file. */
+        OFF
+    }
+
+    enum Kind { OK, SKIPPED, NOT_MODIFIED, UNCHANGED, VERIFIED, ERROR, FAILED }
+
+    private record Event(Kind kind, String name, long bytes, String detail) {
+    }
+
+    private static final boolean COLOR = System.console() != null;
+    private static final String GREEN = COLOR ? "\u001B[32m" : "";
+    private static final String RED = COLOR ? "\u001B[31m" : "";
+    private static final String YELLOW = COLOR ? "\u001B[33m" : "";
+    private static final String RESET = COLOR ? "\u001B[0m" : "";
+    private static final long PLAIN_LINE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static volatile ProgressReporter current = new ProgressReporter(Mode.OFF, Duration.ofSeconds(1), false);
+
+    private final Mode mode;
+    private final long refreshNanos;
+    private final boolean running;
+    private final boolean tty = System.console() != null;
+    private final PrintStream out = System.out;
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong expected = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean stopping;
+
+    // jen vlákno reportéru
+    private final long startNanos = System.nanoTime();
+    private long ok, skipped, unchanged, failed, errors, bytes;
+    private long lastNanos = startNanos;
+    private long lastFinished;
+    private long lastBytes;
+    private double filesRate = -1;
+    private double bytesRate = -1;
+    private long lastPlainLine = startNanos;
+    private int lastLineLength;
+
+    private ProgressReporter(Mode mode, Duration refresh, boolean running) {
+        this.mode = mode;
+        this.refreshNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(100), refresh.toNanos());
+        this.running = running;
+        this.thread = running ? Thread.ofPlatform().name("progress").daemon().unstarted(this::loop) : null;
+    }
+
+    /**
+     * Starts the reporter and makes it the one download tasks publish to.
+     */
+    static ProgressReporter start(Mode mode, Duration refresh) {
+        ProgressReporter r = new ProgressReporter(mode, refresh, true);
+        current = r;
+        r.thread.start();
+        return r;
+    }
+
+    static ProgressReporter get() {
+        return current;
+    }
+
+    /**
+     * One more file is going to be downloaded (for the ETA).
+     */
+    void expect() {
+        expected.incrementAndGet();
+    }
+
+    void publish(Kind kind, String name, long bytes, String detail) {
+        if (running) queue.offer(new Event(kind, name, bytes, detail));
+    }
+
+    /**
+     * Drains the remaining events and prints the final progress line.
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        stopping = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        while (!stopping) {
+            LockSupport.parkNanos(refreshNanos);
+            drain();
+            render(false);
+        }
+        drain();
+        render(true);
+    }
+
+    private void drain() {
+        Event e;
+        while ((e = queue.poll()) != null) {
+            switch (e.kind()) {
+                case OK -> {
+                    ok++;
+                    bytes += e.bytes();
+                    log.info("Downloaded: {} ({} B)", e.name(), e.bytes());
+                    line(GREEN + "⬇️  [OK]" + RESET + " " + e.name() + " (" + e.bytes() + " B)");
+                }
+                case SKIPPED -> {
+                    skipped++;
+                    log.info("Skipped (already exists): {}", e.name());
+                    line(YELLOW + "⏭️  [SKIP]" + RESET + " " + e.name() + " (already exists)");
+                }
+                case NOT_MODIFIED -> {
+                    skipped++;
+                    log.info("Not modified: {}", e.name());
+                    line(YELLOW + "⏭️  [SAME]" + RESET + " " + e.name() + " (not modified)");
+                }
+                case UNCHANGED -> {
+                    unchanged++;
+                    log.info("Unchanged content: {} ({} B)", e.name(), e.bytes());
+                    line(YELLOW + "⏭️  [SAME]" + RESET + " " + e.name() + " (unchanged content)");
+                }
+                case VERIFIED -> {
+                    unchanged++;
+                    log.info("Verified: {}", e.name());
+                    line(YELLOW + "⏭️  [SAME]" + RESET + " " + e.name() + " (verified)");
+                }
+                case ERROR -> {
+                    errors++;
+                    log.info("Attempt failed: {} - {}", e.name(), e.detail());
+                    line(RED + "❌ [ERR]" + RESET + " " + e.name() + " (" + e.detail() + ")");
+                }
+                case FAILED -> {
+                    failed++;
+                    log.info("Failed: {} - {}", e.name(), e.detail());
+                }
+            }
+        }
+    }
+
+    private void line(String text) {
+        if (mode != Mode.FILES) return;
+        clearBar();
+        out.println(text);
+    }
+
+    private void render(boolean last) {
+        long now = System.nanoTime();
+        long finished = ok + skipped + unchanged + failed;
+        double dt = (now - lastNanos) / 1e9;
+        if (dt > 0) {
+            // EWMA přes ~5 obnovení, ať ETA neskáče
+            double f = (finished - lastFinished) / dt;
+            double b = (bytes - lastBytes) / dt;
+            filesRate = filesRate < 0 ? f : filesRate * 0.8 + f * 0.2;
+            bytesRate = bytesRate < 0 ? b : bytesRate * 0.8 + b * 0.2;
+        }
+        lastNanos = now;
+        lastFinished = finished;
+        lastBytes = bytes;
+
+        if (mode == Mode.OFF || (finished == 0 && !last)) return;
+        if (last) {
+            double secs = (now - startNanos) / 1e9;
+            filesRate = secs > 0 ? finished / secs : 0;
+            bytesRate = secs > 0 ? bytes / secs : 0;
+        }
+        long total = Math.max(expected.get(), finished);
+        String eta = last ? "done" : filesRate > 0.01 ? "ETA " + formatDuration((long) ((total - finished) / filesRate)) : "ETA -";
+        String text = String.format(Locale.ROOT,
+                "[progress] %d/%d files | %.1f files/s | %.2f MB/s | %.1f MB | ok %d skip %d same %d failed %d (errors %d) | %s",
+                finished, total, filesRate, bytesRate / 1_048_576.0, bytes / 1_048_576.0,
+                ok, skipped, unchanged, failed, errors, eta);
+
+        if (tty) {
+            out.print("\r" + text + " ".repeat(Math.max(0, lastLineLength - text.length())));
+            lastLineLength = text.length();
+            if (last) out.println();
+        } else if (last || now - lastPlainLine >= PLAIN_LINE_INTERVAL_NANOS) {
+            // bez terminálu (cron, přesměrování) jen řádek jednou za čas
+            out.println(text);
+            lastPlainLine = now;
+        }
+        out.flush();
+    }
+
+    private void clearBar() {
+        if (tty && lastLineLength > 0) {
+            out.print("\r" + " ".repeat(lastLineLength) + "\r");
+            lastLineLength = 0;
+        }
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) return String.format(Locale.ROOT, "%dh%02dm", seconds / 3600, seconds % 3600 / 60);
+        if (seconds >= 60) return String.format(Locale.ROOT, "%dm%02ds", seconds / 60, seconds % 60);
+        return seconds + "s";
+    }
+}
@@ -0,0 +1,473 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Columnar QSO index over the downloaded logs, for "every QSO with OK1K in all years" lookups without a grep.
+ * <p>
+ * Every category is one immutable segment directory with primitive column files (UTC minute, band, mode, id of
+ * the logging station, id of the worked station, log number) and a postings list per callsign id: the rows
+ * in which the call appears on either side. Callsigns are interned into ids by a shared {@link CallDictionary}.
+ * Queries memory-map only the postings offsets and the rows they point to.
+ * <p>
+ * Updates are incremental: a segment is rebuilt only when the list, sizes or mtimes of its logs changed.
+ * A rebuilt segment gets a new versioned directory ({@code category@n}); the switch is the atomic rename of
+ * {@code segments.tsv} and superseded directories are deleted only after it, so a query never sees a half-written
+ * or missing segment.
+ */
+@Slf4j
+final class QsoIndex {
+
+    static final String DIR_NAME = ".cqww-index";
+    private static final String SEGMENTS_FILE = "segments.tsv";
+    private static final String HEADER = "# cqww-index v1\tcategory\tfingerprint\tlogs\trows\tdir";
+    private static final Pattern VERSIONED = Pattern.compile(".+@\\d+");
+    private static final byte[] QSO = "QSO:".getBytes(StandardCharsets.US_ASCII);
+
+    // sloupce segmentu
+    private static final String TIME = "time.i32";
+    private static final String BAND = "band.i8";
+    private static final String MODE = "mode.i8";
+    private static final String CALL = "call.i32";
+    private static final String WORKED = "worked.i32";
+    private static final String LOG = "log.i32";
+    private static final String LOGS = "logs.txt";
+    private static final String POSTINGS_OFFSETS = "postings.off";
+    private static final String POSTINGS = "postings.i32";
+
+    /**
+     * One QSO of a query result; {@code call} logged it, {@code worked} is the other station.
+     */
+    record Qso(String category, String log, int minute, String band, String mode, String call, String worked) {
+    }
+
+    record UpdateResult(int segments, int rebuilt, int removed, long rows, long badLines, int calls) {
+    }
+
+    private record Segment(String category, String dir, String fingerprint, int logs, long rows) {
+    }
+
+    /**
+     * Rows parsed from one log; callsigns are still packed, ids are assigned when the segment is assembled.
+     */
+    private record Chunk(int[] minutes, byte[] bands, byte[] modes, long[] calls, int rows, int bad) {
+    }
+
+    private QsoIndex() {
+    }
+
+    /**
+     * Brings the index in {@code indexDir} up to date with the category directories under {@code root}.
+     */
+    static UpdateResult update(Path root, Path indexDir) throws IOException {
+        Files.createDirectories(indexDir);
+        Map<String, Segment> segments = loadSegments(indexDir);
+        CallDictionary calls = CallDictionary.load(indexDir);
+
+        Map<String, Segment> updated = new LinkedHashMap<>();
+        int rebuilt = 0;
+        long bad = 0;
+        for (Path dir : CabrilloAnalyzer.categories(root)) {
+            String category = CabrilloAnalyzer.categoryName(dir);
+            String fingerprint = fingerprint(dir);
+            Segment existing = segments.get(category);
+            if (existing != null && existing.fingerprint().equals(fingerprint) && Files.isDirectory(indexDir.resolve(existing.dir()))) {
+                updated.put(category, existing);
+                continue;
+            }
+            long start = System.nanoTime();
+            List<CabrilloAnalyzer.Source> sources = CabrilloAnalyzer.sources(dir);
+            List<Chunk> chunks;
+            try (CabrilloAnalyzer.Contents contents = new CabrilloAnalyzer.Contents(sources)) {
+                chunks = sources.parallelStream().map(s -> parse(s, contents)).toList();
+            }
+            Segment segment = writeSegment(indexDir, category, nextDir(category, existing), fingerprint, sources,
+                    chunks, calls);
+            updated.put(category, segment);
+            rebuilt++;
+            long segmentBad = chunks.stream().mapToLong(Chunk::bad).sum();
+            bad += segmentBad;
+            log.info("INDEX | {} | logs: {} qsos: {} bad lines: {} ({} ms)", category, segment.logs(), segment.rows(),
+                    segmentBad, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        int removed = 0;
+        for (String category : segments.keySet()) {
+            if (!updated.containsKey(category)) removed++;
+        }
+        if (rebuilt > 0 || removed > 0 || !Files.exists(indexDir.resolve(SEGMENTS_FILE))) {
+            saveSegments(indexDir, updated.values());
+        }
+        // staré verze (a zbytky přerušeného běhu) až po přepnutí segments.tsv
+        deleteUnreferenced(indexDir, segments.values(), updated.values());
+        long rows = updated.values().stream().mapToLong(Segment::rows).sum();
+        return new UpdateResult(updated.size(), rebuilt, removed, rows, bad, calls.size());
+    }
+
+    /**
+     * All QSOs of each callsign (as logging or worked station) over all segments, ordered by time.
+     * The dictionary is loaded once for all calls.
+     */
+    static Map<String, List<Qso>> query(Path indexDir, List<String> calls) throws IOException {
+        if (!Files.exists(indexDir.resolve(SEGMENTS_FILE))) {
+            throw new IOException("No index in " + indexDir + " (build it with --index)");
+        }
+        CallDictionary dictionary = CallDictionary.load(indexDir);
+        Map<String, Segment> segments = loadSegments(indexDir);
+        Map<String, List<Qso>> result = new LinkedHashMap<>();
+        for (String call : calls) {
+            String norm = call.trim().toUpperCase(Locale.ROOT);
+            int id = dictionary.lookup(norm);
+            result.put(norm, id < 0 ? List.of() : query(indexDir, segments.values(), dictionary, id));
+        }
+        return result;
+    }
+
+    private static List<Qso> query(Path indexDir, Iterable<Segment> segments, CallDictionary calls, int id)
+            throws IOException {
+        List<Qso> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            Path dir = indexDir.resolve(segment.dir());
+            IntBuffer offsets = mapInts(dir.resolve(POSTINGS_OFFSETS));
+            // segment vznikl před přidáním značky do slovníku -> v něm není
+            if (id + 1 >= offsets.limit()) continue;
+            int from = offsets.get(id);
+            int to = offsets.get(id + 1);
+            if (from == to) continue;
+
+            IntBuffer postings = mapInts(dir.resolve(POSTINGS));
+            IntBuffer time = mapInts(dir.resolve(TIME));
+            IntBuffer callCol = mapInts(dir.resolve(CALL));
+            IntBuffer workedCol = mapInts(dir.resolve(WORKED));
+            IntBuffer logCol = mapInts(dir.resolve(LOG));
+            ByteBuffer band = map(dir.resolve(BAND));
+            ByteBuffer mode = map(dir.resolve(MODE));
+            List<String> logs = Files.readAllLines(dir.resolve(LOGS), StandardCharsets.UTF_8);
+            for (int i = from; i < to; i++) {
+                int row = postings.get(i);
+                result.add(new Qso(segment.category(), logs.get(logCol.get(row)), time.get(row),
+                        CabrilloAnalyzer.BANDS[band.get(row)], CabrilloAnalyzer.MODES[mode.get(row)],
+                        calls.name(callCol.get(row)), calls.name(workedCol.get(row))));
+            }
+        }
+        result.sort(Comparator.comparingInt(Qso::minute).thenComparing(Qso::category).thenComparing(Qso::log));
+        return result;
+    }
+
+    /**
+     * {@code yyyy-MM-dd HHmm} of an epoch minute.
+     */
+    static String formatMinute(int minute) {
+        LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(minute, 1440));
+        int m = Math.floorMod(minute, 1440);
+        return String.format(Locale.ROOT, "%s %02d%02d", day, m / 60, m % 60);
+    }
+
+    // --- stavba ---
+
+    /**
+     * Parses the QSO lines of one log ({@code QSO: freq mo date time call rst exch call rst exch ...}).
+     */
+    private static Chunk parse(CabrilloAnalyzer.Source s, CabrilloAnalyzer.Contents contents) {
+        ByteBuffer buf;
+        try {
+            buf = contents.content(s);
+        } catch (IOException e) {
+            log.warn("Cannot read {} ({})", s, e.getMessage());
+            return new Chunk(new int[0], new byte[0], new byte[0], new long[0], 0, 0);
+        }
+        int capacity = Math.max(16, buf.limit() / 64);
+        int[] minutes = new int[capacity];
+        byte[] bands = new byte[capacity];
+        byte[] modes = new byte[capacity];
+        long[] calls = new long[capacity * 4];
+        int rows = 0;
+        int bad = 0;
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+
+        int limit = buf.limit();
+        int pos = 0;
+        while (pos < limit) {
+            int eol = pos;
+            while (eol < limit && buf.get(eol) != '\n') eol++;
+            int end = eol;
+            if (end > pos && buf.get(end - 1) == '\r') end--;
+
+            if (CabrilloAnalyzer.startsWith(buf, pos, end, QSO)) {
+                // prvních 8 polí: freq, mode, datum, čas, značka, rst, kód, protistanice
+                int fields = 0;
+                int p = pos + QSO.length;
+                while (fields < 8) {
+                    p = CabrilloAnalyzer.skipSpaces(buf, p, end);
+                    if (p == end) break;
+                    starts[fields] = p;
+                    while (p < end && buf.get(p) != ' ' && buf.get(p) != '\t') p++;
+                    ends[fields++] = p;
+                }
+                int minute = fields == 8 ? minuteKey(buf, starts[2], ends[2], starts[3], ends[3]) : Integer.MIN_VALUE;
+                int freq = fields == 8 ? CabrilloAnalyzer.digits(buf, starts[0], wholeDigits(buf, starts[0], ends[0])) : -1;
+                if (rows == minutes.length) {
+                    int grown = rows * 2;
+                    minutes = Arrays.copyOf(minutes, grown);
+                    bands = Arrays.copyOf(bands, grown);
+                    modes = Arrays.copyOf(modes, grown);
+                    calls = Arrays.copyOf(calls, grown * 4);
+                }
+                if (minute == Integer.MIN_VALUE || freq <= 0
+                        || !CallDictionary.pack(buf, starts[4], ends[4], calls, rows * 4)
+                        || !CallDictionary.pack(buf, starts[7], ends[7], calls, rows * 4 + 2)) {
+                    bad++;
+                } else {
+                    minutes[rows] = minute;
+                    bands[rows] = (byte) CabrilloAnalyzer.band(freq);
+                    modes[rows] = (byte) CabrilloAnalyzer.mode(buf, starts[1], ends[1]);
+                    rows++;
+                }
+            }
+            pos = eol + 1;
+        }
+        return new Chunk(minutes, bands, modes, calls, rows, bad);
+    }
+
+    /**
+     * Number of leading digits of the frequency (without a decimal part).
+     */
+    private static int wholeDigits(ByteBuffer buf, int from, int to) {
+        int p = from;
+        while (p < to && CabrilloAnalyzer.isDigit(buf.get(p))) p++;
+        return p - from;
+    }
+
+    /**
+     * {@code yyyy-mm-dd} and {@code hhmm} -> minutes since epoch, or MIN_VALUE when malformed.
+     */
+    private static int minuteKey(ByteBuffer buf, int date, int dateEnd, int time, int timeEnd) {
+        if (dateEnd - date != 10 || timeEnd - time != 4 || buf.get(date + 4) != '-' || buf.get(date + 7) != '-') {
+            return Integer.MIN_VALUE;
+        }
+        int y = CabrilloAnalyzer.digits(buf, date, 4);
+        int m = CabrilloAnalyzer.digits(buf, date + 5, 2);
+        int d = CabrilloAnalyzer.digits(buf, date + 8, 2);
+        int hh = CabrilloAnalyzer.digits(buf, time, 2);
+        int mm = CabrilloAnalyzer.digits(buf, time + 2, 2);
+        if (y < 0 || m < 1 || m > 12 || d < 1 || d > 31 || hh < 0 || hh > 23 || mm < 0 || mm > 59) return Integer.MIN_VALUE;
+        return (CabrilloAnalyzer.epochDay(y, m, d) * 24 + hh) * 60 + mm;
+    }
+
+    /**
+     * Interns the calls of all chunks and writes the columns and postings of one category.
+     * The new segment is written to the versioned directory {@code dirName}; the old one stays readable until
+     * {@code segments.tsv} is switched.
+     */
+    private static Segment writeSegment(Path indexDir, String category, String dirName, String fingerprint,
+                                        List<CabrilloAnalyzer.Source> sources, List<Chunk> chunks,
+                                        CallDictionary calls) throws IOException {
+        int rows = 0;
+        for (Chunk c : chunks) rows += c.rows();
+        int[] time = new int[rows];
+        byte[] band = new byte[rows];
+        byte[] mode = new byte[rows];
+        int[] call = new int[rows];
+        int[] worked = new int[rows];
+        int[] logNo = new int[rows];
+
+        int row = 0;
+        for (int l = 0; l < chunks.size(); l++) {
+            Chunk c = chunks.get(l);
+            System.arraycopy(c.minutes(), 0, time, row, c.rows());
+            System.arraycopy(c.bands(), 0, band, row, c.rows());
+            System.arraycopy(c.modes(), 0, mode, row, c.rows());
+            long[] k = c.calls();
+            for (int i = 0; i < c.rows(); i++, row++) {
+                call[row] = calls.intern(k[4 * i], k[4 * i + 1]);
+                worked[row] = calls.intern(k[4 * i + 2], k[4 * i + 3]);
+                logNo[row] = l;
+            }
+        }
+        // slovník první: segment nesmí odkazovat na id, která nejsou uložená
+        calls.save(indexDir);
+
+        // postings: counting sort řádků podle id, řádek se značkou na obou stranách jen jednou
+        int[] offsets = new int[calls.size() + 1];
+        for (int r = 0; r < rows; r++) {
+            offsets[call[r] + 1]++;
+            if (worked[r] != call[r]) offsets[worked[r] + 1]++;
+        }
+        for (int i = 1; i < offsets.length; i++) offsets[i] += offsets[i - 1];
+        int[] postings = new int[offsets[offsets.length - 1]];
+        int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int r = 0; r < rows; r++) {
+            postings[fill[call[r]]++] = r;
+            if (worked[r] != call[r]) postings[fill[worked[r]]++] = r;
+        }
+
+        Path tmp = indexDir.resolve(dirName + ".tmp");
+        deleteTree(tmp);
+        Files.createDirectories(tmp);
+        writeInts(tmp.resolve(TIME), time);
+        writeBytes(tmp.resolve(BAND), band);
+        writeBytes(tmp.resolve(MODE), mode);
+        writeInts(tmp.resolve(CALL), call);
+        writeInts(tmp.resolve(WORKED), worked);
+        writeInts(tmp.resolve(LOG), logNo);
+        writeInts(tmp.resolve(POSTINGS_OFFSETS), offsets);
+        writeInts(tmp.resolve(POSTINGS), postings);
+        Files.write(tmp.resolve(LOGS), sources.stream().map(CabrilloAnalyzer.Source::name).toList(), StandardCharsets.UTF_8);
+
+        Path target = indexDir.resolve(dirName);
+        deleteTree(target);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        return new Segment(category, dirName, fingerprint, sources.size(), rows);
+    }
+
+    /**
+     * Directory of the next version of a segment: {@code category@n}, n one above the current version.
+     */
+    private static String nextDir(String category, Segment existing) {
+        long version = 0;
+        if (existing != null) {
+            int at = existing.dir().lastIndexOf('@');
+            try {
+                if (at >= 0) version = Long.parseLong(existing.dir().substring(at + 1)) + 1;
+            } catch (NumberFormatException e) {
+                version = 0;
+            }
+        }
+        return category + "@" + version;
+    }
+
+    /**
+     * Count, total size and CRC of names, sizes and mtimes of the logs (and zip archive) of a category.
+     */
+    private static String fingerprint(Path dir) throws IOException {
+        CRC32C crc = new CRC32C();
+        long count = 0;
+        long size = 0;
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.toLowerCase(Locale.ROOT).endsWith(".log") || name.equals(ZipLogStore.ARCHIVE_NAME);
+            }).sorted().toList();
+        }
+        for (Path f : files) {
+            BasicFileAttributes a = Files.readAttributes(f, BasicFileAttributes.class);
+            if (!a.isRegularFile()) continue;
+            count++;
+            size += a.size();
+            crc.update((f.getFileName() + "\t" + a.size() + "\t" + a.lastModifiedTime().toMillis() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return count + ":" + size + ":" + Long.toHexString(crc.getValue());
+    }
+
+    // --- soubory ---
+
+    private static Map<String, Segment> loadSegments(Path indexDir) throws IOException {
+        Map<String, Segment> segments = new LinkedHashMap<>();
+        Path file = indexDir.resolve(SEGMENTS_FILE);
+        if (!Files.exists(file)) return segments;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] f = line.split("\t", -1);
+            if (f.length < 4) continue;
+            try {
+                // index bez sloupce dir: adresář segmentu = kategorie
+                String dir = f.length > 4 && !f[4].isEmpty() ? f[4] : f[0];
+                segments.put(f[0], new Segment(f[0], dir, f[1], Integer.parseInt(f[2]), Long.parseLong(f[3])));
+            } catch (NumberFormatException e) {
+                log.debug("Skipped malformed index line: {}", line);
+            }
+        }
+        return segments;
+    }
+
+    private static void saveSegments(Path indexDir, Iterable<Segment> segments) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (Segment s : segments) lines.add(s.category() + "\t" + s.fingerprint() + "\t" + s.logs() + "\t" + s.rows() + "\t" + s.dir());
+        Path tmp = indexDir.resolve(SEGMENTS_FILE + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, indexDir.resolve(SEGMENTS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes segment directories no longer referenced: superseded versions, removed categories and leftovers
+     * ({@code category@n}, {@code *.tmp}) of an interrupted update. Other directories in {@code indexDir} are kept.
+     */
+    private static void deleteUnreferenced(Path indexDir, Collection<Segment> previous, Collection<Segment> current)
+            throws IOException {
+        Set<String> live = new HashSet<>();
+        for (Segment s : current) live.add(s.dir());
+        Set<String> old = new HashSet<>();
+        for (Segment s : previous) old.add(s.dir());
+        List<Path> dirs;
+        try (Stream<Path> list = Files.list(indexDir)) {
+            dirs = list.filter(Files::isDirectory).filter(d -> {
+                String name = d.getFileName().toString();
+                return !live.contains(name) && (old.contains(name) || name.endsWith(".tmp") || VERSIONED.matcher(name).matches());
+            }).toList();
+        }
+        for (Path d : dirs) deleteTree(d);
+    }
+
+    private static void writeInts(Path file, int[] values) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asIntBuffer().put(values);
+        write(file, buf);
+    }
+
+    private static void writeBytes(Path file, byte[] values) throws IOException {
+        write(file, ByteBuffer.wrap(values));
+    }
+
+    private static void write(Path file, ByteBuffer buf) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static IntBuffer mapInts(Path file) throws IOException {
+        return map(file).asIntBuffer();
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package cz.ok1xoe.cqww;
+
+import java.net.URI;
+import java.time.LocalTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-host token buckets for requests per second and bytes per second, optionally only within a time-of-day window.
+ * <p>
+ * A caller takes its tokens immediately (the bucket may go negative) and then sleeps off the debt outside the lock.
+ * The fair lock hands out reservations in arrival order, so virtual threads are admitted first come, first served.
+ * Bytes are charged while the body is streamed ({@link #reserveBytes}), so large logs are limited too.
+ */
+final class RateLimiter {
+
+    private static final RateLimiter UNLIMITED = new RateLimiter(0, 0, null);
+
+    /**
+     * Time of day when the limits apply; {@code from > to} wraps over midnight.
+     */
+    record Window(LocalTime from, LocalTime to) {
+        boolean contains(LocalTime t) {
+            return from.isBefore(to)
+                    ? !t.isBefore(from) && t.isBefore(to)
+                    : !t.isBefore(from) || t.isBefore(to);
+        }
+
+        /**
+         * Parses {@code HH:mm-HH:mm}.
+         */
+        static Window parse(String s) {
+            String[] parts = s.trim().split("-", 2);
+            if (parts.length != 2) throw new IllegalArgumentException("Expected HH:mm-HH:mm: " + s);
+            return new Window(LocalTime.parse(parts[0].trim()), LocalTime.parse(parts[1].trim()));
+        }
+
+        @Override
+        public String toString() {
+            return from + "-" + to;
+        }
+    }
+
+    private final double requestsPerSecond;
+    private final long bytesPerSecond;
+    private final Window window;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param requestsPerSecond 0 = unlimited
+     * @param bytesPerSecond    0 = unlimited
+     * @param window            null = always
+     */
+    RateLimiter(double requestsPerSecond, long bytesPerSecond, Window window) {
+        this.requestsPerSecond = Math.max(0, requestsPerSecond);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.window = window;
+    }
+
+    static RateLimiter unlimited() {
+        return UNLIMITED;
+    }
+
+    boolean isLimited() {
+        return requestsPerSecond > 0 || bytesPerSecond > 0;
+    }
+
+    /**
+     * Waits for a request token of the URI's host.
+     */
+    void acquireRequest(URI uri) throws InterruptedException {
+        if (requestsPerSecond > 0 && active()) host(uri).requests.acquire(1);
+    }
+
+    /**
+     * Charges {@code n} received body bytes to the URI's host and returns how long the caller should pause
+     * before it asks for more (0 = go on). Used by {@link FileBodySubscriber}, which must not block the client's
+     * thread and delays its next demand instead.
+     */
+    long reserveBytes(URI uri, long n) {
+        if (bytesPerSecond <= 0 || n <= 0 || !active()) return 0L;
+        return host(uri).bytes.reserve(n);
+    }
+
+    @Override
+    public String toString() {
+        if (!isLimited()) return "unlimited";
+        String req = requestsPerSecond > 0 ? String.format(Locale.ROOT, "%.1f req/s", requestsPerSecond) : "- req/s";
+        String bw = bytesPerSecond > 0 ? String.format(Locale.ROOT, "%.2f MB/s", bytesPerSecond / 1_048_576.0) : "- MB/s";
+        return req + ", " + bw + " per host" + (window != null ? " (" + window + ")" : "");
+    }
+
+    private boolean active() {
+        return window == null || window.contains(LocalTime.now());
+    }
+
+    private Host host(URI uri) {
+        String key = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : "";
+        return hosts.computeIfAbsent(key, k -> new Host(
+                new Bucket(requestsPerSecond, Math.max(1.0, requestsPerSecond)),
+                new Bucket(bytesPerSecond, Math.max(64 * 1024, bytesPerSecond))));
+    }
+
+    private record Host(Bucket requests, Bucket bytes) {
+    }
+
+    /**
+     * Token bucket refilled at {@code perSecond}, holding at most {@code capacity} (one second of burst).
+     */
+    private static final class Bucket {
+        // férový zámek -> rezervace v pořadí příchodu; spí se mimo zámek
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final double perSecond;
+        private final double capacity;
+        private double tokens;
+        private long lastNanos = System.nanoTime();
+
+        private Bucket(double perSecond, double capacity) {
+            this.perSecond = perSecond;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        void acquire(long n) throws InterruptedException {
+            long waitNanos = reserve(n);
+            if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+
+        /**
+         * Takes the tokens and returns the debt in nanoseconds.
+         */
+        long reserve(long n) {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                tokens = Math.min(capacity, tokens + (now - lastNanos) * perSecond / 1e9);
+                lastNanos = now;
+                tokens -= n;
+                return tokens >= 0 ? 0L : (long) (-tokens / perSecond * 1e9);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * One of {@code n} disjoint parts of the archive ({@code --shard=i/n}, i from 1).
+ * <p>
+ * A log belongs to the shard with the highest rendezvous hash of (file name, shard), so every node computes
+ * the same split from the page listing alone, without talking to the others, and going from n to n + 1 shards
+ * moves only about 1/(n + 1) of the logs. Each shard writes its result manifest
+ * {@code .cqww-shard.<i>of<n>.tsv} into the category directory: the whole listing it saw, the state of its own
+ * logs and their manifest entries. {@link #merge(Path)} folds the results into {@code .cqww-manifest.tsv}
+ * and reports logs no shard delivered.
+ */
+@Slf4j
+final class Shard {
+
+    static final String FILE_PREFIX = ".cqww-shard.";
+    private static final Pattern FILE_PATTERN = Pattern.compile("\\.cqww-shard\\.(\\d+)of(\\d+)\\.tsv");
+    private static final Pattern SPEC = Pattern.compile("(\\d+)/(\\d+)");
+    private static final String HEADER = "# cqww-shard v1";
+    private static final String COLUMNS = "# file\tstatus\tetag\tlast-modified\tsize\tmtime\tsha256";
+    private static final int MAX_GAPS_LOGGED = 20;
+
+    static final String OK = "ok";
+    static final String FAILED = "failed";
+    static final String OTHER = "other";
+
+    private final int index;
+    private final int count;
+
+    Shard(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("shard must be i/n with 1 <= i <= n: " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parses {@code i/n}.
+     */
+    static Shard parse(String spec) {
+        Matcher m = SPEC.matcher(spec.trim());
+        if (!m.matches()) throw new IllegalArgumentException("shard must be i/n, e.g. 2/4: " + spec);
+        return new Shard(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)));
+    }
+
+    int index() {
+        return index;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean owns(String fileName) {
+        return owner(fileName, count) == index;
+    }
+
+    /**
+     * Rendezvous (highest random weight) hashing: the shard 1..n with the highest score of the name.
+     */
+    static int owner(String fileName, int count) {
+        long key = fnv1a(fileName);
+        int best = 1;
+        long bestScore = score(key, 1);
+        for (int i = 2; i <= count; i++) {
+            long score = score(key, i);
+            if (Long.compareUnsigned(score, bestScore) > 0) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    String fileName() {
+        return FILE_PREFIX + index + "of" + count + ".tsv";
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+
+    /**
+     * Loads the entries of this shard's previous result into the manifest, so {@code sync} keeps its validators
+     * between shard runs even before a merge.
+     */
+    void restore(Path dir, SyncManifest manifest) {
+        Path file = dir.resolve(fileName());
+        if (!Files.exists(file)) return;
+        try {
+            Report r = Report.read(file, this);
+            r.entries().forEach(manifest::put);
+        } catch (IOException e) {
+            log.warn("Cannot read shard result: {} ({})", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the result manifest of one category (temp file + rename).
+     *
+     * @param status every listed file name -> {@link #OK}, {@link #FAILED} or {@link #OTHER}
+     */
+    void write(Path dir, Map<String, String> status, SyncManifest manifest) {
+        Path file = dir.resolve(fileName());
+        Path tmp = dir.resolve(fileName() + ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(HEADER + "\t" + this + "\tlisted=" + status.size());
+                w.newLine();
+                w.write(COLUMNS);
+                w.newLine();
+                for (Map.Entry<String, String> e : new TreeMap<>(status).entrySet()) {
+                    SyncManifest.Entry v = OK.equals(e.getValue()) ? manifest.get(e.getKey()) : null;
+                    w.write(e.getKey() + "\t" + e.getValue());
+                    if (v != null) {
+                        w.write("\t" + dash(v.etag()) + "\t" + dash(v.lastModified()) + "\t" + v.size()
+                                + "\t" + v.mtime() + "\t" + dash(v.sha256()));
+                    }
+                    w.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.error("Cannot write shard result: {}", file, e);
+        }
+    }
+
+    /**
+     * Result manifest of one shard in one category.
+     */
+    record Report(Shard shard, Path file, FileTime written, Map<String, String> status,
+                  Map<String, SyncManifest.Entry> entries) {
+
+        static Report read(Path file, Shard shard) throws IOException {
+            Map<String, String> status = new LinkedHashMap<>();
+            Map<String, SyncManifest.Entry> entries = new LinkedHashMap<>();
+            try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                lines.forEach(line -> {
+                    if (line.isBlank() || line.startsWith("#")) return;
+                    String[] f = line.split("\t", -1);
+                    if (f.length < 2) return;
+                    status.put(f[0], f[1]);
+                    if (f.length >= 7) {
+                        try {
+                            entries.put(f[0], new SyncManifest.Entry(undash(f[2]), undash(f[3]),
+                                    Long.parseLong(f[4]), Long.parseLong(f[5]), undash(f[6])));
+                        } catch (NumberFormatException e) {
+                            log.debug("Skipped malformed shard line: {}", line);
+                        }
+                    }
+                });
+            }
+            return new Report(shard, file, Files.getLastModifiedTime(file), status, entries);
+        }
+    }
+
+    /**
+     * Outcome of a merge: categories merged, logs listed, logs delivered and gaps over all categories.
+     */
+    record MergeResult(int categories, int listed, int delivered, int gaps) {
+    }
+
+    /**
+     * Merges the shard results of every category under {@code root} (and of {@code root} itself) into their
+     * {@code .cqww-manifest.tsv} and logs the gaps: logs whose shard did not report, failed, did not list them,
+     * or reported them but the file is not in the directory (not copied from that node yet).
+     */
+    static MergeResult merge(Path root) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        dirs.add(root);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path p : ds) {
+                if (!p.getFileName().toString().startsWith(".")) dirs.add(p);
+            }
+        }
+        dirs.subList(1, dirs.size()).sort(null);
+
+        int categories = 0, listed = 0, delivered = 0, gaps = 0;
+        for (Path dir : dirs) {
+            List<Report> reports = reports(dir);
+            if (reports.isEmpty()) continue;
+            categories++;
+            int[] r = mergeCategory(dir, reports);
+            listed += r[0];
+            delivered += r[1];
+            gaps += r[2];
+        }
+        if (categories == 0) log.warn("No shard results found under {}", root);
+        return new MergeResult(categories, listed, delivered, gaps);
+    }
+
+    /**
+     * Returns {listed, delivered, gaps}.
+     */
+    private static int[] mergeCategory(Path dir, List<Report> all) {
+        String name = dir.getFileName() != null ? dir.getFileName().toString() : dir.toString();
+
+        // platí poslední běh: výsledky s jiným počtem shardů jsou staré
+        Report newest = all.stream().max((a, b) -> a.written().compareTo(b.written())).orElseThrow();
+        int n = newest.shard().count();
+        Report[] byIndex = new Report[n + 1];
+        for (Report r : all) {
+            if (r.shard().count() != n) {
+                log.warn("MERGE | {} | ignoring stale result {} (shard {}, current runs use {} shards)",
+                        name, r.file().getFileName(), r.shard(), n);
+                continue;
+            }
+            byIndex[r.shard().index()] = r;
+        }
+
+        // seznam logů = sjednocení toho, co viděly jednotlivé shardy
+        Set<String> listing = new LinkedHashSet<>();
+        for (int i = 1; i <= n; i++) {
+            if (byIndex[i] != null) listing.addAll(byIndex[i].status().keySet());
+        }
+
+        SyncManifest manifest = SyncManifest.load(dir);
+        Map<String, String> gaps = new TreeMap<>();
+        int[] unreported = new int[n + 1];
+        int delivered = 0;
+        for (String file : listing) {
+            int owner = owner(file, n);
+            Report r = byIndex[owner];
+            String state = r != null ? r.status().get(file) : null;
+            if (r == null) {
+                unreported[owner]++;
+            } else if (state == null || OTHER.equals(state)) {
+                // jiný shard viděl jinou verzi stránky (stažení v různou dobu)
+                gaps.put(file, "not listed by shard " + owner + "/" + n);
+            } else if (!OK.equals(state)) {
+                gaps.put(file, state + " on shard " + owner + "/" + n);
+            } else if (!Files.exists(dir.resolve(file))) {
+                gaps.put(file, "reported by shard " + owner + "/" + n + " but missing in " + dir);
+            } else {
+                SyncManifest.Entry e = r.entries().get(file);
+                if (e != null) manifest.put(file, e);
+                delivered++;
+            }
+        }
+        manifest.save();
+
+        int reported = 0;
+        int missing = gaps.size();
+        for (int i = 1; i <= n; i++) {
+            if (byIndex[i] != null) reported++;
+            missing += unreported[i];
+        }
+        log.info("MERGE | {} | shards: {}/{} logs: {} delivered: {} gaps: {}",
+                name, reported, n, listing.size(), delivered, missing);
+        for (int i = 1; i <= n; i++) {
+            if (byIndex[i] == null) log.warn("GAP | {} | shard {}/{} did not report ({} logs)", name, i, n, unreported[i]);
+        }
+        int shown = 0;
+        for (Map.Entry<String, String> g : gaps.entrySet()) {
+            if (shown++ == MAX_GAPS_LOGGED) {
+                log.warn("GAP | {} | ... and {} more", name, gaps.size() - MAX_GAPS_LOGGED);
+                break;
+            }
+            log.warn("GAP | {} | {} | {}", name, g.getKey(), g.getValue());
+        }
+        return new int[]{listing.size(), delivered, missing};
+    }
+
+    private static List<Report> reports(Path dir) {
+        List<Report> reports = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, FILE_PREFIX + "*.tsv")) {
+            for (Path p : ds) {
+                Matcher m = FILE_PATTERN.matcher(p.getFileName().toString());
+                if (!m.matches()) continue;
+                try {
+                    reports.add(Report.read(p, new Shard(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)))));
+                } catch (IllegalArgumentException | IOException e) {
+                    log.warn("Cannot read shard result: {} ({})", p, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot list directory: {} ({})", dir, e.getMessage());
+        }
+        return reports;
+    }
+
+    private static long fnv1a(String s) {
+        long h = 0xCBF29CE484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    // skóre nezávislé na JVM i na pořadí uzlů, finalizér SplitMix64
+    private static long score(long key, int shard) {
+        long z = key ^ (shard * 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String dash(String s) {
+        return (s == null || s.isEmpty()) ? "-" : s.replace('\t', ' ');
+    }
+
+    private static String undash(String s) {
+        return (s == null || s.isEmpty() || s.equals("-")) ? null : s;
+    }
+}
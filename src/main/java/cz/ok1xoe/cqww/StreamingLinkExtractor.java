@@ -0,0 +1,352 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Streaming extractor of {@code <a href>} links (replacement of the full Jsoup DOM for large listings).
+ * <p>
+ * The body is tokenized while it arrives; only the bytes of the current tag are buffered, so memory use
+ * does not depend on the page size. Comments and script/style content are skipped, {@code <base href>}
+ * is honoured. Each href is resolved against the base URL first (characters illegal in a URI are
+ * percent-encoded, like Jsoup does), the filter is tested on the resolved URI and accepted links are passed to
+ * the sink immediately. Dropped hrefs are logged at debug level.
+ * <p>
+ * Tag bytes are decoded with the charset of the response ({@code Content-Type}), UTF-8 when it has none.
+ */
+@Slf4j
+final class StreamingLinkExtractor {
+
+    private static final int MAX_TAG_BYTES = 8192;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+    private enum State { TEXT, TAG, COMMENT, RAW_TEXT }
+
+    private StreamingLinkExtractor() {}
+
+    /**
+     * Absolute .log links (the path ends with .log, query kept, fragment removed), in page order.
+     *
+     * @param charset charset of the page, null when unknown
+     */
+    static void extractLogLinks(InputStream in, Charset charset, String baseUrl, Consumer<String> sink)
+            throws IOException {
+        new Parser(baseUrl, charset, StreamingLinkExtractor::isLogLink, uri -> sink.accept(withoutFragment(uri)))
+                .run(in);
+    }
+
+    static void extract(InputStream in, Charset charset, String baseUrl, Predicate<URI> linkFilter,
+                        Consumer<String> sink) throws IOException {
+        new Parser(baseUrl, charset, linkFilter, uri -> sink.accept(uri.toString())).run(in);
+    }
+
+    private static boolean isLogLink(URI uri) {
+        String path = uri.getPath();
+        return path != null && path.toLowerCase(Locale.ROOT).endsWith(".log");
+    }
+
+    private static String withoutFragment(URI uri) {
+        String s = uri.toString();
+        int hash = uri.getRawFragment() != null ? s.indexOf('#') : -1;
+        return hash >= 0 ? s.substring(0, hash) : s;
+    }
+
+    private static final class Parser {
+        private final Charset charset;
+        private final Predicate<URI> linkFilter;
+        private final Consumer<URI> sink;
+        private URI base;
+
+        private State state = State.TEXT;
+        private final byte[] tag = new byte[MAX_TAG_BYTES];
+        private int tagLen;
+        private boolean tagOverflow;
+        private byte quote;
+        private int dashes;          // počet '-' před '>' v komentáři
+        private byte[] rawTextEnd;   // "</script" / "</style"
+        private int rawTextMatched;
+
+        Parser(String baseUrl, Charset charset, Predicate<URI> linkFilter, Consumer<URI> sink) {
+            this.charset = charset != null ? charset : DEFAULT_CHARSET;
+            this.linkFilter = linkFilter;
+            this.sink = sink;
+            this.base = toBase(baseUrl);
+        }
+
+        void run(InputStream in) throws IOException {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    consume(buf[i]);
+                }
+            }
+        }
+
+        private void consume(byte b) {
+            switch (state) {
+                case TEXT -> {
+                    if (b == '<') {
+                        startTag();
+                    }
+                }
+                case TAG -> {
+                    if (tagLen == 0 && !isTagStart(b)) {
+                        // "a < b" je text, ne tag
+                        state = b == '<' ? State.TAG : State.TEXT;
+                        return;
+                    }
+                    if (quote != 0) {
+                        if (b == quote) quote = 0;
+                    } else if (b == '"' || b == '\'') {
+                        // uvozovky jen uvnitř atributů (po názvu tagu)
+                        if (tagLen > 0) quote = b;
+                    } else if (b == '>') {
+                        state = State.TEXT;
+                        if (!tagOverflow) onTag();
+                        return;
+                    }
+                    if (tagLen < MAX_TAG_BYTES) {
+                        tag[tagLen++] = b;
+                    } else {
+                        tagOverflow = true;
+                    }
+                    if (tagLen == 3 && tag[0] == '!' && tag[1] == '-' && tag[2] == '-') {
+                        state = State.COMMENT;
+                        dashes = 0;
+                    }
+                }
+                case COMMENT -> {
+                    if (b == '-') {
+                        dashes++;
+                    } else {
+                        if (b == '>' && dashes >= 2) state = State.TEXT;
+                        dashes = 0;
+                    }
+                }
+                case RAW_TEXT -> {
+                    byte lower = (byte) Character.toLowerCase(b);
+                    if (lower == rawTextEnd[rawTextMatched]) {
+                        rawTextMatched++;
+                        if (rawTextMatched == rawTextEnd.length) {
+                            // "</script" nalezeno, zbytek tagu dočte stav TAG
+                            startTag();
+                        }
+                    } else {
+                        rawTextMatched = lower == rawTextEnd[0] ? 1 : 0;
+                    }
+                }
+            }
+        }
+
+        private void startTag() {
+            state = State.TAG;
+            tagLen = 0;
+            tagOverflow = false;
+            quote = 0;
+        }
+
+        private void onTag() {
+            // rychlý test bez dekódování: zajímá nás jen a/base/script/style
+            byte first = (byte) (tag[0] | 0x20);
+            if (first != 'a' && first != 'b' && first != 's') return;
+            String t = new String(tag, 0, tagLen, charset);
+            int nameEnd = 0;
+            while (nameEnd < t.length() && !isSpace(t.charAt(nameEnd)) && t.charAt(nameEnd) != '/') nameEnd++;
+            String name = t.substring(0, nameEnd).toLowerCase(Locale.ROOT);
+
+            switch (name) {
+                case "a" -> {
+                    String href = attribute(t, nameEnd, "href");
+                    if (href == null || href.isEmpty()) return;
+                    URI abs = resolve(href);
+                    if (abs == null) {
+                        log.debug("Dropped unresolvable link: {}", href);
+                    } else if (linkFilter.test(abs)) {
+                        sink.accept(abs);
+                    } else {
+                        log.debug("Skipped link: {}", abs);
+                    }
+                }
+                case "base" -> {
+                    String href = attribute(t, nameEnd, "href");
+                    if (href != null && !href.isEmpty()) {
+                        URI abs = resolve(href);
+                        if (abs != null) base = toBase(abs.toString());
+                        else log.debug("Ignored unresolvable <base href>: {}", href);
+                    }
+                }
+                case "script", "style" -> {
+                    if (!t.endsWith("/")) {
+                        state = State.RAW_TEXT;
+                        rawTextEnd = ("</" + name).getBytes(StandardCharsets.US_ASCII);
+                        rawTextMatched = 0;
+                    }
+                }
+                default -> {
+                    // ostatní tagy nás nezajímají
+                }
+            }
+        }
+
+        private URI resolve(String href) {
+            try {
+                return base.resolve(new URI(encodeIllegal(href)));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Value of attribute {@code wanted} (first occurrence), entities decoded and whitespace stripped.
+     */
+    static String attribute(String tag, int from, String wanted) {
+        int i = from;
+        int len = tag.length();
+        while (i < len) {
+            while (i < len && (isSpace(tag.charAt(i)) || tag.charAt(i) == '/')) i++;
+            int nameStart = i;
+            while (i < len && !isSpace(tag.charAt(i)) && tag.charAt(i) != '=' && tag.charAt(i) != '/') i++;
+            if (i == nameStart) {
+                i++;
+                continue;
+            }
+            String name = tag.substring(nameStart, i);
+            while (i < len && isSpace(tag.charAt(i))) i++;
+
+            String value = "";
+            if (i < len && tag.charAt(i) == '=') {
+                i++;
+                while (i < len && isSpace(tag.charAt(i))) i++;
+                if (i < len && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+                    char q = tag.charAt(i++);
+                    int end = tag.indexOf(q, i);
+                    if (end < 0) end = len;
+                    value = tag.substring(i, end);
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < len && !isSpace(tag.charAt(i))) i++;
+                    value = tag.substring(start, i);
+                }
+            }
+            if (name.equalsIgnoreCase(wanted)) {
+                return decodeEntities(value).strip();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Percent-encodes (as UTF-8) the characters {@link URI} rejects: spaces, non-ASCII, {@code "<>\\^`{|}[]},
+     * a {@code %} not followed by two hex digits and every {@code #} after the first.
+     */
+    static String encodeIllegal(String href) {
+        int i = 0;
+        while (i < href.length() && isUriChar(href, i)) i++;
+        if (i == href.length()) return href;
+
+        StringBuilder sb = new StringBuilder(href.length() + 16).append(href, 0, i);
+        while (i < href.length()) {
+            int n = Character.charCount(href.codePointAt(i));
+            if (isUriChar(href, i)) {
+                sb.append(href.charAt(i));
+            } else {
+                for (byte b : href.substring(i, i + n).getBytes(StandardCharsets.UTF_8)) {
+                    sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+                }
+            }
+            i += n;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isUriChar(String s, int i) {
+        char c = s.charAt(i);
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) return true;
+        if (c == '%') {
+            return i + 2 < s.length() && isHex(s.charAt(i + 1)) && isHex(s.charAt(i + 2));
+        }
+        if (c == '#') return s.lastIndexOf('#', i - 1) < 0;
+        return "-._~:/?@!$&'()*+,;=".indexOf(c) >= 0;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    static String decodeEntities(String s) {
+        int amp = s.indexOf('&');
+        if (amp < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        int i = 0;
+        while (amp >= 0) {
+            sb.append(s, i, amp);
+            int semi = s.indexOf(';', amp);
+            String ent = semi > amp ? s.substring(amp + 1, semi) : "";
+            String rep = switch (ent) {
+                case "amp" -> "&";
+                case "lt" -> "<";
+                case "gt" -> ">";
+                case "quot" -> "\"";
+                case "apos" -> "'";
+                default -> numericEntity(ent);
+            };
+            if (rep != null) {
+                sb.append(rep);
+                i = semi + 1;
+            } else {
+                sb.append('&');
+                i = amp + 1;
+            }
+            amp = s.indexOf('&', i);
+        }
+        sb.append(s, i, s.length());
+        return sb.toString();
+    }
+
+    private static String numericEntity(String ent) {
+        if (ent.length() < 2 || ent.charAt(0) != '#') return null;
+        try {
+            int cp = (ent.charAt(1) == 'x' || ent.charAt(1) == 'X')
+                    ? Integer.parseInt(ent.substring(2), 16)
+                    : Integer.parseInt(ent.substring(1));
+            return new String(Character.toChars(cp));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isTagStart(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '!' || b == '/' || b == '?';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static URI toBase(String baseUrl) {
+        try {
+            URI uri = new URI(baseUrl);
+            // URI.resolve neumí prázdnou cestu ("http://host" + "x.log" -> "http://hostx.log")
+            if (uri.getRawPath() == null || uri.getRawPath().isEmpty()) {
+                uri = new URI(uri.getScheme(), uri.getRawAuthority(), "/", null, null);
+            }
+            return uri;
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid base URL: " + baseUrl, e);
+        }
+    }
+}
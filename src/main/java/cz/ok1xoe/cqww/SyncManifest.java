@@ -0,0 +1,135 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-category manifest of downloaded logs (validators, size, mtime, SHA-256 of the content).
+ * Stored as a TSV file inside the category directory.
+ */
+@Slf4j
+final class SyncManifest {
+
+    static final String FILE_NAME = ".cqww-manifest.tsv";
+    private static final String HEADER = "# cqww-manifest v1\tfile\tetag\tlast-modified\tsize\tmtime\tsha256";
+
+    record Entry(String etag, String lastModified, long size, long mtime, String sha256) {
+        boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    private final Path dir;
+    private final Set<String> localFiles;
+    private final Map<String, Entry> entries;
+
+    private SyncManifest(Path dir, Set<String> localFiles, Map<String, Entry> entries) {
+        this.dir = dir;
+        this.localFiles = localFiles;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the manifest and lists the directory once (no stat per file).
+     */
+    static SyncManifest load(Path dir) {
+        Set<String> files = ConcurrentHashMap.newKeySet();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                files.add(p.getFileName().toString());
+            }
+        } catch (NoSuchFileException e) {
+            // adresář ještě neexistuje -> prázdný listing
+        } catch (IOException e) {
+            log.warn("Cannot list directory: {} ({})", dir, e.getMessage());
+        }
+
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        Path file = dir.resolve(FILE_NAME);
+        if (files.contains(FILE_NAME)) {
+            try {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (line.isBlank() || line.startsWith("#")) continue;
+                    String[] f = line.split("\t", -1);
+                    if (f.length < 5) continue;
+                    try {
+                        // sloupec sha256 chybí u starších manifestů
+                        entries.put(f[0], new Entry(nullIfDash(f[1]), nullIfDash(f[2]),
+                                Long.parseLong(f[3]), Long.parseLong(f[4]), f.length > 5 ? nullIfDash(f[5]) : null));
+                    } catch (NumberFormatException ex) {
+                        log.debug("Skipped malformed manifest line: {}", line);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cannot read manifest: {} ({})", file, e.getMessage());
+            }
+        }
+        return new SyncManifest(dir, files, entries);
+    }
+
+    boolean exists(String fileName) {
+        return localFiles.contains(fileName);
+    }
+
+    Entry get(String fileName) {
+        return entries.get(fileName);
+    }
+
+    void put(String fileName, Entry entry) {
+        localFiles.add(fileName);
+        entries.put(fileName, entry);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the manifest atomically (temp file + rename).
+     */
+    void save() {
+        Path file = dir.resolve(FILE_NAME);
+        Path tmp = dir.resolve(FILE_NAME + ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(HEADER);
+                w.newLine();
+                for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+                    Entry v = e.getValue();
+                    w.write(e.getKey() + "\t" + dashIfNull(v.etag()) + "\t" + dashIfNull(v.lastModified())
+                            + "\t" + v.size() + "\t" + v.mtime() + "\t" + dashIfNull(v.sha256()));
+                    w.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (java.nio.file.AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.error("Cannot write manifest: {}", file, e);
+        }
+    }
+
+    private static String nullIfDash(String s) {
+        return (s == null || s.isEmpty() || s.equals("-")) ? null : s;
+    }
+
+    private static String dashIfNull(String s) {
+        return (s == null || s.isEmpty()) ? "-" : s.replace('\t', ' ');
+    }
+}
@@ -0,0 +1,248 @@
+package cz.ok1xoe.cqww;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * All logs of one category in one deflate-compressed zip archive ({@code <dir>/logs.zip}).
+ * <p>
+ * Logs are downloaded to a staging directory and copied into the archive by a single writer thread,
+ * download threads only wait for their own commit. The zip central directory is the random-access index;
+ * existing archives are opened and updated in place (zip file system), the archive file is rewritten when
+ * the store is closed. A log with the size and CRC-32 of its existing entry is not written again (unchanged).
+ * <p>
+ * New entries are kept in temporary files, not on the heap ({@code useTempFile}). The staged logs are deleted
+ * only after the archive has been written and synced, so logs of a run killed before {@link #close()} are
+ * still on disk and are added to the archive when the store is opened next time.
+ */
+@Slf4j
+final class ZipLogStore implements LogStore {
+
+    static final String ARCHIVE_NAME = "logs.zip";
+    static final String STAGING_DIR = ".cqww-staging";
+
+    private record Commit(String name, Path file, CompletableFuture<Void> done) {
+    }
+
+    private static final Commit END = new Commit(null, null, null);
+
+    private final Path archive;
+    private final Path staging;
+    private final FileSystem zip;
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // zapsané do archivu, smažou se až po jeho uložení
+    private final List<Path> staged = new ArrayList<>();
+    private volatile boolean closed;
+    private int written;
+
+    ZipLogStore(Path dir) throws IOException {
+        this.archive = dir.resolve(ARCHIVE_NAME);
+        this.staging = dir.resolve(STAGING_DIR);
+        Files.createDirectories(staging);
+        // dočasné soubory zip FS po přerušeném běhu (vytváří je vedle archivu)
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "zipfstmp*.tmp")) {
+            for (Path p : ds) Files.deleteIfExists(p);
+        }
+        // nové položky v dočasných souborech, ne v paměti až do close()
+        this.zip = FileSystems.newFileSystem(archive, Map.of("create", "true", "useTempFile", Boolean.TRUE));
+        try {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(zip.getPath("/"))) {
+                for (Path p : ds) {
+                    names.add(p.getFileName().toString());
+                }
+            }
+            log.debug("Archive {} opened ({} entries)", archive, names.size());
+            recoverStaged();
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+        this.writer = Thread.ofPlatform().name("zip-writer-" + dir.getFileName()).start(this::writeLoop);
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return names.contains(name);
+    }
+
+    @Override
+    public Path target(String name) {
+        return staging.resolve(name);
+    }
+
+    @Override
+    public Path stored(String name) {
+        // cesta v zip FS: velikost je nekomprimovaná velikost položky
+        return zip.getPath(name);
+    }
+
+    /**
+     * Inflates the entry and digests it; the CRC-32 of the inflated bytes must match the one in the archive.
+     *
+     * @throws ZipException when the entry is corrupt
+     */
+    @Override
+    public String sha256(String name) throws IOException {
+        Path entry = zip.getPath(name);
+        MessageDigest sha = HttpDownloadUtils.sha256();
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(entry)) {
+            for (int n; (n = in.read(buf)) > 0; ) {
+                sha.update(buf, 0, n);
+                crc.update(buf, 0, n);
+            }
+        }
+        long expected = (Long) Files.getAttribute(entry, "zip:crc");
+        if (crc.getValue() != expected) {
+            throw new ZipException("CRC mismatch of " + name + " in " + archive);
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    @Override
+    public boolean commit(String name, Path file, String sha256) throws IOException {
+        if (closed) throw new IOException("Archive already closed: " + archive);
+        if (names.contains(name) && sameEntry(name, file)) {
+            Files.deleteIfExists(file);
+            return false;
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        queue.add(new Commit(name, file, done));
+        try {
+            done.join();
+            return true;
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * True if the archive entry {@code name} has the size and CRC-32 of {@code file}.
+     */
+    private boolean sameEntry(String name, Path file) throws IOException {
+        Path entry = zip.getPath(name);
+        long size;
+        long crc;
+        try {
+            size = Files.size(entry);
+            crc = (Long) Files.getAttribute(entry, "zip:crc");
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (size != Files.size(file)) return false;
+        CRC32 actual = new CRC32();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (size > 0) actual.update(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        return actual.getValue() == crc;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Commit c;
+            try {
+                c = queue.take();
+            } catch (InterruptedException e) {
+                // writer se ukončuje jen přes END
+                continue;
+            }
+            if (c == END) return;
+            try {
+                add(c.name(), c.file());
+                c.done().complete(null);
+            } catch (IOException | RuntimeException e) {
+                c.done().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void add(String name, Path file) throws IOException {
+        Files.copy(file, zip.getPath(name), StandardCopyOption.REPLACE_EXISTING);
+        names.add(name);
+        staged.add(file);
+        written++;
+    }
+
+    /**
+     * Adds complete logs left in the staging directory by a run that ended before the archive was written.
+     */
+    private void recoverStaged() throws IOException {
+        int before = written;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(staging)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                // .part a .part.meta patří nedokončeným přenosům
+                if (!Files.isRegularFile(p) || name.endsWith(HttpDownloadUtils.PART_SUFFIX)
+                        || name.endsWith(HttpDownloadUtils.META_SUFFIX)) continue;
+                add(name, p);
+            }
+        }
+        if (written > before) log.info("Archive {} | {} staged logs of an interrupted run recovered", archive, written - before);
+    }
+
+    /**
+     * Waits for pending commits, writes and syncs the archive, then removes the staged logs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        queue.add(END);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (Commit late; (late = queue.poll()) != null; ) {
+            if (late != END) late.done().completeExceptionally(new IOException("Archive already closed: " + archive));
+        }
+        try {
+            zip.close();
+            if (written > 0) {
+                try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+                    ch.force(true);
+                }
+                for (Path p : staged) Files.deleteIfExists(p);
+                log.info("Archive {} | {} logs written, {} in total, {} B", archive, written, names.size(), Files.size(archive));
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(staging);
+            } catch (DirectoryNotEmptyException e) {
+                // nedokončené .part soubory zůstávají pro navázání, po chybě zápisu archivu i hotové logy
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package cz.ok1xoe.cqww;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CabrilloAnalyzerTest {
+
+    @Test
+    void jsonEscapesControlCharactersInHeaderValues() throws IOException {
+        String log = """
+                START-OF-LOG: 3.0
+                CALLSIGN: OK1K\tX
+                CATEGORY-OPERATOR: SINGLE-OP\u0001
+                QSO: 14025 CW 2024-11-23 0000 OK1K 599 15 DL1AB 599 14
+                END-OF-LOG:
+                """;
+        CabrilloAnalyzer.LogStats stats = CabrilloAnalyzer.parse("2024CW", "ok1k.log",
+                ByteBuffer.wrap(log.getBytes(StandardCharsets.US_ASCII)));
+
+        StringWriter w = new StringWriter();
+        CabrilloAnalyzer.writeJson(new CabrilloAnalyzer.Report(List.of(stats), List.of()), w);
+        String json = w.toString();
+
+        assertTrue(json.contains("\"callsign\": \"OK1K\\tX\""), json);
+        assertTrue(json.contains("\"category-operator\": \"SINGLE-OP\\u0001\""), json);
+        // mimo oddělovače řádků žádný řídicí znak
+        assertFalse(json.chars().anyMatch(c -> c < 0x20 && c != '\n'), json);
+    }
+}